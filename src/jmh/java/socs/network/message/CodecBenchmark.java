@@ -0,0 +1,95 @@
+package socs.network.message;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * encoding and decoding of an LSAUPDATE with the binary codec and with java serialization; the
+ * encoded sizes of the packet are computed once in setup and printed with each trial, outside the
+ * timed path
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CodecBenchmark {
+
+	@Param({ "1", "10", "100" })
+	public int lsas;
+
+	private SOSPFPacket packet;
+	private ByteBuffer binary;
+	private byte[] serialized;
+
+	@Setup
+	public void setUp() throws IOException {
+		packet = new SOSPFPacket();
+		packet.sospfType = 1;
+		packet.srcProcessIP = "127.0.0.1";
+		packet.srcProcessPort = 3000;
+		packet.srcIP = "192.168.1.1";
+		packet.dstIP = "192.168.1.2";
+		packet.neighborID = "192.168.1.1";
+		for (int i = 0; i < lsas; i++) {
+			String originator = "192.168." + (i / 250) + "." + (i % 250 + 1);
+			LSA.Builder lsa = LSA.builder(originator, Integer.MIN_VALUE + i).add(originator, -1, 0);
+			for (int k = 1; k <= 4; k++) {
+				int j = (i + k) % Math.max(lsas, 5);
+				lsa.add("192.168." + (j / 250) + "." + (j % 250 + 1), 3000 + j, k);
+			}
+			packet.lsaArray.add(lsa.build());
+		}
+		binary = PacketCodec.encode(packet);
+		serialized = serialize(packet);
+		System.out.println("lsas " + lsas + ": binary " + binary.remaining() + " bytes, serialized " + serialized.length
+				+ " bytes");
+	}
+
+	@Benchmark
+	public ByteBuffer binaryEncode() {
+		return PacketCodec.encode(packet);
+	}
+
+	@Benchmark
+	public SOSPFPacket binaryDecode() throws IOException {
+		return PacketCodec.decode(binary.duplicate());
+	}
+
+	@Benchmark
+	public byte[] serializedEncode() throws IOException {
+		return serialize(packet);
+	}
+
+	@Benchmark
+	public Object serializedDecode() throws IOException, ClassNotFoundException {
+		ObjectInputStream input = new ObjectInputStream(new ByteArrayInputStream(serialized));
+		return input.readObject();
+	}
+
+	private static byte[] serialize(SOSPFPacket packet) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		ObjectOutputStream output = new ObjectOutputStream(bytes);
+		output.writeObject(packet);
+		output.close();
+		return bytes.toByteArray();
+	}
+}
@@ -0,0 +1,84 @@
+package socs.network.node;
+
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import socs.network.message.LSA;
+
+/**
+ * LSA installs from four threads into one database, as when several neighbours flood at once; the
+ * originators are drawn from a pool, so a small pool means contention on the same entries. With spf
+ * immediate every install repairs the tree before returning, with throttled the repairs are batched
+ * on a timer as in a running router
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Threads(4)
+@Fork(1)
+public class InstallBenchmark {
+
+	@Param({ "16", "1024" })
+	public int originators;
+
+	@Param({ "immediate", "throttled" })
+	public String spf;
+
+	private LinkStateDatabase lsd;
+	private List<LSA> templates;
+	private ScheduledExecutorService timer;
+	// every install carries a sequence number above all earlier ones, so it always replaces
+	private final AtomicInteger seq = new AtomicInteger();
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		RouterDescription rd = new RouterDescription();
+		rd.simulatedIPAddress = Topology.name(0);
+		lsd = new LinkStateDatabase(rd);
+		templates = Topology.generate("scalefree", originators, 42).lsas();
+		if (spf.equals("throttled")) {
+			timer = Executors.newSingleThreadScheduledExecutor();
+			lsd.spfThrottle = new Throttle(timer, 50, 2000, () -> lsd.runSpf());
+		}
+		lsd.getShortestPath(Topology.name(0));
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		if (timer != null) {
+			timer.shutdownNow();
+		}
+	}
+
+	@State(Scope.Thread)
+	public static class Cursor {
+		int next = 0;
+	}
+
+	@Benchmark
+	public boolean install(Cursor cursor) {
+		LSA template = templates.get(cursor.next++ % templates.size());
+		// LSAs never change, so the versions share the links
+		return lsd.installIfNewer(template.withSeqNumber(seq.incrementAndGet()));
+	}
+}
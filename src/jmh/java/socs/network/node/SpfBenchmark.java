@@ -0,0 +1,85 @@
+package socs.network.node;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import socs.network.message.LSA;
+
+/**
+ * shortest path queries on generated topologies: a full computation, a query after one LSA changed
+ * (incremental SPF), a query against an unchanged database and one source of the all-pairs batch
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SpfBenchmark {
+
+	@Param({ "ring", "grid", "scalefree" })
+	public String topology;
+
+	@Param({ "10", "100", "1000", "10000" })
+	public int size;
+
+	private LinkStateDatabase lsd;
+	private String farthest;
+	// two versions of one LSA, installed in turn with rising sequence numbers
+	private LSA changing;
+	private int seq = 0;
+	private AllPairs allPairs;
+
+	@Setup
+	public void setUp() {
+		RouterDescription rd = new RouterDescription();
+		rd.simulatedIPAddress = Topology.name(0);
+		lsd = new LinkStateDatabase(rd);
+		List<LSA> lsas = Topology.generate(topology, size, 42).lsas();
+		for (LSA lsa : lsas) {
+			lsd.installIfNewer(lsa);
+		}
+		farthest = Topology.name(size - 1);
+		changing = lsas.get(size / 2);
+		lsd.getShortestPath(farthest);
+		allPairs = new AllPairs(lsd._store);
+	}
+
+	@Benchmark
+	public ShortestPathTree fullSpf() {
+		return new ShortestPathTree(Topology.name(0), lsd._store);
+	}
+
+	@Benchmark
+	public String incrementalSpf() {
+		// alternate the weights of the changing router between their original and doubled values
+		LSA.Builder next = LSA.builder(changing.linkStateID, ++seq);
+		for (int i = 0; i < changing.size(); i++) {
+			next.add(changing.linkID(i), changing.portNum(i), seq % 2 == 0 ? changing.tosMetrics(i) : changing.tosMetrics(i) * 2);
+		}
+		lsd.installIfNewer(next.build());
+		return lsd.getShortestPath(farthest);
+	}
+
+	@Benchmark
+	public AllPairs.Row batchSource() {
+		return allPairs.run(size / 2);
+	}
+
+	@Benchmark
+	public String cachedQuery() {
+		return lsd.getShortestPath(farthest);
+	}
+}
@@ -1,29 +1,230 @@
 package socs.network.message;
 
 import java.io.Serializable;
-import java.util.LinkedList;
+import java.util.Arrays;
+import java.util.HashMap;
 
+/**
+ * an LSA never changes once made; a router changes its own LSA by installing a changed version with
+ * a higher sequence number, made by the with methods or a Builder
+ * <p/>
+ * the links are kept in three arrays, link i going to linkID(i) over portNum(i) at tosMetrics(i),
+ * rather than as objects of their own. Link IDs are interned, so that all LSAs naming a router share
+ * one String, and versions that only differ in sequence number or age share the arrays
+ * <p/>
+ * an LSA that reaches MAX_AGE is flushed: the copy flooded with that age tells every router to
+ * remove it from its database
+ */
 @SuppressWarnings("serial")
-public class LSA implements Serializable {
+public final class LSA implements Serializable {
+
+    public static final int MAX_AGE = 3600;
+
+    // LSAs with more links than this get a hash index for indexOf, smaller ones are scanned
+    private static final int INDEXED = 16;
+
+    private static final String[] NO_IDS = new String[0];
+    private static final int[] NONE = new int[0];
 
     //IP address of the router originate this LSA
-    public String linkStateID;
-    public int lsaSeqNumber = Integer.MIN_VALUE;
+    public final String linkStateID;
+    public final int lsaSeqNumber;
+
+    // seconds since the originator made this version, when this copy was sent
+    public final int lsaAge;
+
+    private final String[] linkIDs;
+    private final int[] portNums;
+    private final int[] tosMetrics;
+    // linkID => position of its first link, built on the first lookup of a large LSA
+    private transient volatile HashMap<String, Integer> index;
+
+    private LSA(String linkStateID, int lsaSeqNumber, int lsaAge, String[] linkIDs, int[] portNums, int[] tosMetrics) {
+        this.linkStateID = linkStateID;
+        this.lsaSeqNumber = lsaSeqNumber;
+        this.lsaAge = lsaAge;
+        this.linkIDs = linkIDs;
+        this.portNums = portNums;
+        this.tosMetrics = tosMetrics;
+    }
 
-    public LinkedList<LinkDescription> links = new LinkedList<LinkDescription>();
+    /**
+     * an LSA of the originator with the given sequence number, age 0 and no links; a header as sent
+     * in DBD and LSREQUEST packets
+     */
+    public LSA(String linkStateID, int lsaSeqNumber) {
+        this(linkStateID, lsaSeqNumber, 0, NO_IDS, NONE, NONE);
+    }
+
+    public static Builder builder(String linkStateID, int lsaSeqNumber) {
+        return new Builder(linkStateID, lsaSeqNumber);
+    }
+
+    /**
+     * number of links
+     */
+    public int size() {
+        return linkIDs.length;
+    }
+
+    public String linkID(int i) {
+        return linkIDs[i];
+    }
+
+    public int portNum(int i) {
+        return portNums[i];
+    }
+
+    public int tosMetrics(int i) {
+        return tosMetrics[i];
+    }
+
+    public LinkDescription link(int i) {
+        return new LinkDescription(linkIDs[i], portNums[i], tosMetrics[i]);
+    }
+
+    /**
+     * position of the first link to the given router, -1 if there is none
+     */
+    public int indexOf(String linkID) {
+        if (linkIDs.length <= INDEXED) {
+            for (int i = 0; i < linkIDs.length; i++) {
+                if (linkIDs[i] == linkID || linkIDs[i].equals(linkID)) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+        HashMap<String, Integer> positions = index;
+        if (positions == null) {
+            positions = new HashMap<String, Integer>(linkIDs.length * 2);
+            for (int i = linkIDs.length - 1; i >= 0; i--) {
+                positions.put(linkIDs[i], i);
+            }
+            index = positions;
+        }
+        Integer i = positions.get(linkID);
+        return i == null ? -1 : i;
+    }
+
+    /**
+     * this LSA at another sequence number, with age 0
+     */
+    public LSA withSeqNumber(int seq) {
+        return new LSA(linkStateID, seq, 0, linkIDs, portNums, tosMetrics);
+    }
+
+    /**
+     * this copy of the LSA at another age
+     */
+    public LSA withAge(int age) {
+        return new LSA(linkStateID, lsaSeqNumber, age, linkIDs, portNums, tosMetrics);
+    }
+
+    /**
+     * this LSA with a link to the given router instead of the ones it had to it, at the end
+     */
+    public LSA withLink(String linkID, int portNum, int tosMetrics) {
+        Builder next = without(linkID);
+        next.add(linkID, portNum, tosMetrics);
+        return next.build();
+    }
+
+    /**
+     * this LSA without its links to the given router
+     */
+    public LSA withoutLinks(String linkID) {
+        return indexOf(linkID) == -1 ? this : without(linkID).build();
+    }
+
+    // a builder with the header and every link but those to the given router
+    private Builder without(String linkID) {
+        Builder next = new Builder(linkStateID, lsaSeqNumber);
+        next.age = lsaAge;
+        for (int i = 0; i < linkIDs.length; i++) {
+            if (!linkIDs[i].equals(linkID)) {
+                next.addInterned(linkIDs[i], portNums[i], tosMetrics[i]);
+            }
+        }
+        return next;
+    }
 
     @Override
     public String toString() {
         StringBuffer sb = new StringBuffer();
-        sb.append(linkStateID + ":").append(lsaSeqNumber + " :: Self :: ");
-        for (LinkDescription ld : links) {
-            sb.append(ld + " :: Link :: ");
+        sb.append(linkStateID + ":").append(lsaSeqNumber + " age " + lsaAge + " :: Self :: ");
+        for (int i = 0; i < linkIDs.length; i++) {
+            sb.append(linkIDs[i] + "," + portNums[i] + "," + tosMetrics[i] + " :: Link :: ");
         }
         return sb.toString();
     }
 
-    public LSA addLinkDescription(String r2_simIP, int r2_portNum, int r2_weight) {
-        links.add(new LinkDescription(r2_simIP, r2_portNum, r2_weight));
-        return this;
+    /**
+     * whether this copy tells the routers to remove the LSA
+     */
+    public boolean isFlush() {
+        return lsaAge >= MAX_AGE;
+    }
+
+    /**
+     * whether this copy replaces the other one: it has a higher sequence number, or the same one and
+     * flushes the LSA
+     */
+    public boolean isNewerThan(LSA other) {
+        if (lsaSeqNumber != other.lsaSeqNumber) {
+            return lsaSeqNumber > other.lsaSeqNumber;
+        }
+        return isFlush() && !other.isFlush();
+    }
+
+    /**
+     * collects the links of a new LSA, in order
+     */
+    public static final class Builder {
+
+        private final String linkStateID;
+        private final int lsaSeqNumber;
+        private int age = 0;
+        private String[] linkIDs = new String[4];
+        private int[] portNums = new int[4];
+        private int[] tosMetrics = new int[4];
+        private int size = 0;
+
+        private Builder(String linkStateID, int lsaSeqNumber) {
+            this.linkStateID = linkStateID;
+            this.lsaSeqNumber = lsaSeqNumber;
+        }
+
+        public Builder age(int age) {
+            this.age = age;
+            return this;
+        }
+
+        public Builder add(String linkID, int portNum, int tosMetrics) {
+            return addInterned(linkID.intern(), portNum, tosMetrics);
+        }
+
+        public Builder add(LinkDescription ld) {
+            return add(ld.linkID, ld.portNum, ld.tosMetrics);
+        }
+
+        // for IDs that come from another LSA or the codec's string table, which are interned already
+        Builder addInterned(String linkID, int portNum, int metric) {
+            if (size == linkIDs.length) {
+                linkIDs = Arrays.copyOf(linkIDs, size * 2);
+                portNums = Arrays.copyOf(portNums, size * 2);
+                tosMetrics = Arrays.copyOf(tosMetrics, size * 2);
+            }
+            linkIDs[size] = linkID;
+            portNums[size] = portNum;
+            tosMetrics[size] = metric;
+            size++;
+            return this;
+        }
+
+        public LSA build() {
+            return new LSA(linkStateID, lsaSeqNumber, age, Arrays.copyOf(linkIDs, size), Arrays.copyOf(portNums, size),
+                    Arrays.copyOf(tosMetrics, size));
+        }
     }
 }
@@ -0,0 +1,88 @@
+package socs.network.message;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+
+/**
+ * the difference between two versions of the LSA of one originator: the links that were added or
+ * changed and the IDs of the links that were removed. A receiver holding the base version can rebuild
+ * the new one from it without the full list of links being sent
+ */
+@SuppressWarnings("serial")
+public class LSADelta implements Serializable {
+
+  public String linkStateID;
+  public int baseSeqNumber;
+  public int lsaSeqNumber;
+  // age of the new version as sent, which the rebuilt LSA takes over like a full copy would
+  public int lsaAge;
+
+  public ArrayList<LinkDescription> changed = new ArrayList<LinkDescription>();
+  public ArrayList<String> removed = new ArrayList<String>();
+
+  /**
+   * what turns base into next; both are LSAs of the same originator
+   */
+  public static LSADelta between(LSA base, LSA next) {
+    LSADelta delta = new LSADelta();
+    delta.linkStateID = next.linkStateID;
+    delta.baseSeqNumber = base.lsaSeqNumber;
+    delta.lsaSeqNumber = next.lsaSeqNumber;
+    delta.lsaAge = next.lsaAge;
+
+    for (int i = 0; i < next.size(); i++) {
+      int old = base.indexOf(next.linkID(i));
+      if (old == -1 || base.portNum(old) != next.portNum(i) || base.tosMetrics(old) != next.tosMetrics(i)) {
+        delta.changed.add(next.link(i));
+      }
+    }
+    for (int i = 0; i < base.size(); i++) {
+      if (next.indexOf(base.linkID(i)) == -1) {
+        delta.removed.add(base.linkID(i));
+      }
+    }
+    return delta;
+  }
+
+  /**
+   * the new version of the LSA, built from the base version it was computed against
+   */
+  public LSA applyTo(LSA base) {
+    HashMap<String, LinkDescription> updates = new HashMap<String, LinkDescription>();
+    for (LinkDescription ld : changed) {
+      updates.put(ld.linkID, ld);
+    }
+    HashSet<String> gone = new HashSet<String>(removed);
+
+    LSA.Builder next = LSA.builder(linkStateID, lsaSeqNumber).age(lsaAge);
+    // existing links keep their position, new ones go to the end
+    for (int i = 0; i < base.size(); i++) {
+      if (gone.contains(base.linkID(i))) {
+        continue;
+      }
+      LinkDescription update = updates.remove(base.linkID(i));
+      if (update == null) {
+        next.addInterned(base.linkID(i), base.portNum(i), base.tosMetrics(i));
+      } else {
+        next.add(update);
+      }
+    }
+    for (LinkDescription ld : changed) {
+      if (updates.containsKey(ld.linkID)) {
+        next.add(ld);
+      }
+    }
+    return next.build();
+  }
+
+  public int size() {
+    return changed.size() + removed.size();
+  }
+
+  @Override
+  public String toString() {
+    return linkStateID + ":" + baseSeqNumber + "->" + lsaSeqNumber + " age " + lsaAge + " :: Changed :: " + changed + " :: Removed :: " + removed;
+  }
+}
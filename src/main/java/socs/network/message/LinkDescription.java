@@ -2,18 +2,24 @@ package socs.network.message;
 
 import java.io.Serializable;
 
+/**
+ * one link of an LSA as a value of its own, as LSADelta sends changed links; LSA itself keeps its
+ * links in arrays
+ */
 @SuppressWarnings("serial")
-public class LinkDescription implements Serializable {
-	public String linkID;
-	public int portNum;
-	public int tosMetrics;
+public final class LinkDescription implements Serializable {
+	// portNum of a summary link: a router in another area that the area border router originating
+	// the LSA reaches at cost tosMetrics
+	public static final int SUMMARY = -2;
+
+	public final String linkID;
+	public final int portNum;
+	public final int tosMetrics;
 
 	public String toString() {
 		return linkID + "," + portNum + "," + tosMetrics;
 	}
 
-	public LinkDescription() {}
-
 	public LinkDescription(String linkID, int portNum, int tosMetrics) {
 		this.linkID = linkID;
 		this.portNum = portNum;
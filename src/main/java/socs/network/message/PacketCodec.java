@@ -0,0 +1,301 @@
+package socs.network.message;
+
+import java.net.ProtocolException;
+import java.nio.BufferOverflowException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * compact binary encoding of SOSPFPacket, used instead of java serialization on the wire; the
+ * channel frames each encoded packet with its length, see SocketNeighborChannel
+ * <p/>
+ * layout, fixed width fields big-endian, in this order:
+ * <pre>
+ *   header      version(1) sospfType(1) srcProcessPort(2) srcWeight(4)     8 bytes, HEADER_SIZE
+ *   counts      stringCount lsaCount deltaCount
+ *   strings     stringCount x ( length bytes(UTF-8) )
+ *   fields      srcProcessIP srcIP dstIP routerID neighborID areaID
+ *   LSAs        lsaCount x ( linkStateID seq age linkCount, linkCount x ( linkID port metric ) )
+ *   deltas      deltaCount x ( linkStateID baseSeq seqOffset age
+ *                              changedCount, changedCount x ( linkID port metric )
+ *                              removedCount, removedCount x ( linkID ) )
+ *   DATA only   ttl(1) dataSeq timestamp(8) echo(1) payloadLength payload(payloadLength)
+ * </pre>
+ * fields without a width are unsigned LEB128 varints:
+ * <ul>
+ * <li>strings (router IDs and addresses) are written once in the table in first-seen order and
+ * referenced elsewhere by index + 1, 0 standing for null</li>
+ * <li>seq and baseSeq are offsets from Integer.MIN_VALUE; seqOffset is the delta's sequence number
+ * minus baseSeq</li>
+ * <li>ages and areaID are plain varints, port and metric zigzag varints as they can be negative</li>
+ * <li>timestamp is the System.nanoTime of the original sender, echoed back unchanged; echo is 1 for
+ * the reply and 0 otherwise</li>
+ * </ul>
+ * bump VERSION on any change to this layout; a decoder rejects other versions
+ */
+public class PacketCodec {
+
+  public static final byte VERSION = 7;
+  public static final short DATA = 5;
+  public static final int HEADER_SIZE = 8;
+  // the ttl of a DATA packet travels in one byte
+  public static final int MAX_TTL = 255;
+
+  /**
+   * encode the packet into a new buffer, ready to be read
+   */
+  public static ByteBuffer encode(SOSPFPacket packet) {
+    int capacity = 256;
+    while (true) {
+      ByteBuffer out = ByteBuffer.allocate(capacity);
+      try {
+        encode(packet, out);
+        out.flip();
+        return out;
+      } catch (BufferOverflowException e) {
+        capacity *= 2;
+      }
+    }
+  }
+
+  /**
+   * encode the packet at the position of the given buffer
+   *
+   * @throws BufferOverflowException if the packet does not fit, the buffer position is then undefined
+   */
+  public static void encode(SOSPFPacket packet, ByteBuffer out) {
+    StringTable strings = new StringTable();
+    strings.add(packet.srcProcessIP);
+    strings.add(packet.srcIP);
+    strings.add(packet.dstIP);
+    strings.add(packet.routerID);
+    strings.add(packet.neighborID);
+    for (LSA lsa : packet.lsaArray) {
+      strings.add(lsa.linkStateID);
+      for (int i = 0; i < lsa.size(); i++) {
+        strings.add(lsa.linkID(i));
+      }
+    }
+    for (LSADelta delta : packet.deltaArray) {
+      strings.add(delta.linkStateID);
+      for (LinkDescription ld : delta.changed) {
+        strings.add(ld.linkID);
+      }
+      for (String linkID : delta.removed) {
+        strings.add(linkID);
+      }
+    }
+
+    out.put(VERSION);
+    out.put((byte) packet.sospfType);
+    out.putShort(packet.srcProcessPort);
+    out.putInt(packet.srcWeight);
+    putVarint(out, strings.values.size());
+    putVarint(out, packet.lsaArray.size());
+    putVarint(out, packet.deltaArray.size());
+
+    for (byte[] value : strings.values) {
+      putVarint(out, value.length);
+      out.put(value);
+    }
+
+    strings.put(out, packet.srcProcessIP);
+    strings.put(out, packet.srcIP);
+    strings.put(out, packet.dstIP);
+    strings.put(out, packet.routerID);
+    strings.put(out, packet.neighborID);
+    putVarint(out, packet.areaID);
+
+    for (LSA lsa : packet.lsaArray) {
+      strings.put(out, lsa.linkStateID);
+      putVarint(out, lsa.lsaSeqNumber - Integer.MIN_VALUE);
+      putVarint(out, lsa.lsaAge);
+      putVarint(out, lsa.size());
+      for (int i = 0; i < lsa.size(); i++) {
+        strings.put(out, lsa.linkID(i));
+        putVarint(out, zigzag(lsa.portNum(i)));
+        putVarint(out, zigzag(lsa.tosMetrics(i)));
+      }
+    }
+
+    for (LSADelta delta : packet.deltaArray) {
+      strings.put(out, delta.linkStateID);
+      putVarint(out, delta.baseSeqNumber - Integer.MIN_VALUE);
+      // the new version is usually just a few numbers ahead of the base
+      putVarint(out, delta.lsaSeqNumber - delta.baseSeqNumber);
+      putVarint(out, delta.lsaAge);
+      putLinks(out, strings, delta.changed);
+      putVarint(out, delta.removed.size());
+      for (String linkID : delta.removed) {
+        strings.put(out, linkID);
+      }
+    }
+
+    if (packet.sospfType == DATA) {
+      out.put((byte) packet.ttl);
+      putVarint(out, packet.dataSeq);
+      out.putLong(packet.timestamp);
+      out.put((byte) (packet.echo ? 1 : 0));
+      int length = packet.payload == null ? 0 : packet.payload.length;
+      putVarint(out, length);
+      if (length > 0) {
+        out.put(packet.payload);
+      }
+    }
+  }
+
+  private static void putLinks(ByteBuffer out, StringTable strings, List<LinkDescription> links) {
+    putVarint(out, links.size());
+    for (LinkDescription ld : links) {
+      strings.put(out, ld.linkID);
+      putVarint(out, zigzag(ld.portNum));
+      putVarint(out, zigzag(ld.tosMetrics));
+    }
+  }
+
+  /**
+   * decode one packet from the remaining bytes of the buffer
+   */
+  public static SOSPFPacket decode(ByteBuffer in) throws ProtocolException {
+    try {
+      byte version = in.get();
+      if (version != VERSION) {
+        throw new ProtocolException("unsupported wire version " + version);
+      }
+
+      SOSPFPacket packet = new SOSPFPacket();
+      packet.sospfType = (short) (in.get() & 0xff);
+      packet.srcProcessPort = in.getShort();
+      packet.srcWeight = in.getInt();
+      int stringCount = getVarint(in);
+      int lsaCount = getVarint(in);
+      int deltaCount = getVarint(in);
+      // every entry takes at least a byte, so larger counts are garbage rather than big packets
+      int remaining = in.remaining();
+      if ((stringCount | lsaCount | deltaCount) < 0 || stringCount > remaining || lsaCount > remaining
+          || deltaCount > remaining) {
+        throw new ProtocolException("bad count");
+      }
+
+      String[] strings = new String[stringCount];
+      for (int i = 0; i < stringCount; i++) {
+        byte[] value = new byte[getVarint(in)];
+        in.get(value);
+        // interned, so that every LSA naming a router shares one String
+        strings[i] = new String(value, StandardCharsets.UTF_8).intern();
+      }
+
+      packet.srcProcessIP = getString(in, strings);
+      packet.srcIP = getString(in, strings);
+      packet.dstIP = getString(in, strings);
+      packet.routerID = getString(in, strings);
+      packet.neighborID = getString(in, strings);
+      packet.areaID = getVarint(in);
+
+      for (int i = 0; i < lsaCount; i++) {
+        String linkStateID = getString(in, strings);
+        LSA.Builder lsa = LSA.builder(linkStateID, getVarint(in) + Integer.MIN_VALUE).age(getVarint(in));
+        int linkCount = getVarint(in);
+        for (int j = 0; j < linkCount; j++) {
+          lsa.addInterned(getString(in, strings), unzigzag(getVarint(in)), unzigzag(getVarint(in)));
+        }
+        packet.lsaArray.add(lsa.build());
+      }
+
+      for (int i = 0; i < deltaCount; i++) {
+        LSADelta delta = new LSADelta();
+        delta.linkStateID = getString(in, strings);
+        delta.baseSeqNumber = getVarint(in) + Integer.MIN_VALUE;
+        delta.lsaSeqNumber = delta.baseSeqNumber + getVarint(in);
+        delta.lsaAge = getVarint(in);
+        getLinks(in, strings, delta.changed);
+        int removedCount = getVarint(in);
+        for (int j = 0; j < removedCount; j++) {
+          delta.removed.add(getString(in, strings));
+        }
+        packet.deltaArray.add(delta);
+      }
+
+      if (packet.sospfType == DATA) {
+        packet.ttl = in.get() & 0xff;
+        packet.dataSeq = getVarint(in);
+        packet.timestamp = in.getLong();
+        packet.echo = in.get() != 0;
+        packet.payload = new byte[getVarint(in)];
+        in.get(packet.payload);
+      }
+      return packet;
+    } catch (BufferUnderflowException e) {
+      throw new ProtocolException("truncated packet");
+    } catch (ArrayIndexOutOfBoundsException e) {
+      throw new ProtocolException("bad string reference");
+    } catch (NegativeArraySizeException e) {
+      throw new ProtocolException("bad length");
+    }
+  }
+
+  private static void getLinks(ByteBuffer in, String[] strings, List<LinkDescription> links) {
+    int linkCount = getVarint(in);
+    for (int j = 0; j < linkCount; j++) {
+      String linkID = getString(in, strings);
+      int portNum = unzigzag(getVarint(in));
+      int tosMetrics = unzigzag(getVarint(in));
+      links.add(new LinkDescription(linkID, portNum, tosMetrics));
+    }
+  }
+
+  private static String getString(ByteBuffer in, String[] strings) {
+    int ref = getVarint(in);
+    return ref == 0 ? null : strings[ref - 1];
+  }
+
+  // unsigned LEB128, 7 bits per byte
+  static void putVarint(ByteBuffer out, int value) {
+    while ((value & ~0x7f) != 0) {
+      out.put((byte) ((value & 0x7f) | 0x80));
+      value >>>= 7;
+    }
+    out.put((byte) value);
+  }
+
+  static int getVarint(ByteBuffer in) {
+    int value = 0;
+    for (int shift = 0; shift < 35; shift += 7) {
+      byte b = in.get();
+      value |= (b & 0x7f) << shift;
+      if ((b & 0x80) == 0) {
+        return value;
+      }
+    }
+    throw new BufferUnderflowException();
+  }
+
+  static int zigzag(int value) {
+    return (value << 1) ^ (value >> 31);
+  }
+
+  static int unzigzag(int value) {
+    return (value >>> 1) ^ -(value & 1);
+  }
+
+  // distinct strings of a packet in first-seen order
+  private static class StringTable {
+    final HashMap<String, Integer> index = new HashMap<String, Integer>();
+    final List<byte[]> values = new ArrayList<byte[]>();
+
+    void add(String value) {
+      if (value != null && !index.containsKey(value)) {
+        index.put(value, values.size());
+        values.add(value.getBytes(StandardCharsets.UTF_8));
+      }
+    }
+
+    void put(ByteBuffer out, String value) {
+      putVarint(out, value == null ? 0 : index.get(value) + 1);
+    }
+  }
+}
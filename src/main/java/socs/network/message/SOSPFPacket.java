@@ -1,7 +1,7 @@
 package socs.network.message;
 
 import java.io.*;
-import java.util.Vector;
+import java.util.ArrayList;
 import java.util.concurrent.atomic.AtomicInteger;
 
 @SuppressWarnings({ "serial", "unused" })
@@ -11,13 +11,15 @@ public class SOSPFPacket implements Serializable {
   public String srcProcessIP;
   public short srcProcessPort;
   public int srcWeight;
+  //area of the link the packet is sent over, checked by HELLO
+  public int areaID;
 
   //simulated IP address
   public String srcIP;
   public String dstIP;
 
   //common header
-  public short sospfType; //0 - HELLO, 1 - LinkState Update, 2 - Quit packet
+  public short sospfType; //0 - HELLO, 1 - LinkState Update, 2 - Quit packet, 3 - LinkState Request, 4 - Database Description, 5 - Data
   public String routerID;
 
   //used by HELLO message to identify the sender of the message
@@ -25,7 +27,19 @@ public class SOSPFPacket implements Serializable {
   //simulated IP address
   public String neighborID; //neighbor's simulated IP address
 
-  //used by LSAUPDATE
-  public Vector<LSA> lsaArray = new Vector<LSA>();
+  //used by LSAUPDATE; LSREQUEST and DBD list originators and sequence numbers here, without links
+  //a packet is filled by one thread before it is sent, so the lists need no locking
+  public ArrayList<LSA> lsaArray = new ArrayList<LSA>();
+
+  //used by LSAUPDATE, changes against a version the receiver is expected to have
+  public ArrayList<LSADelta> deltaArray = new ArrayList<LSADelta>();
+
+  //used by DATA, forwarded hop by hop from srcIP to dstIP; the destination answers with an echo
+  //carrying the same dataSeq and timestamp, so that the sender can measure the round trip
+  public int ttl;
+  public int dataSeq;
+  public long timestamp;
+  public boolean echo;
+  public byte[] payload;
 
 }
@@ -0,0 +1,9 @@
+package socs.network.message;
+
+/**
+ * how SOSPFPackets are written to a neighbour channel
+ */
+public enum WireFormat {
+  BINARY,     // length prefixed frames encoded by PacketCodec
+  SERIALIZED, // java object serialization, kept for peers that do not speak the binary format
+}
@@ -0,0 +1,206 @@
+package socs.network.node;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.function.Consumer;
+
+import socs.network.message.LSA;
+import socs.network.message.LinkDescription;
+import socs.network.util.IndexedMinHeap;
+
+/**
+ * shortest paths from many sources over one snapshot of the link state database, for batch
+ * queries and all-pairs distances
+ * <p/>
+ * the adjacency is built once and never changes, so the single-source runs share it and run in
+ * parallel on a fork/join pool without locking; results are handed out in the order of the sources
+ * or in the order they complete, with only a bounded number of them held at a time
+ */
+class AllPairs {
+
+	// routers in order of their simulated ip, and the adjacency by position in it
+	private final String[] names;
+	private final HashMap<String, Integer> index = new HashMap<String, Integer>();
+	private final int[][] outTarget;
+	private final int[][] outWeight;
+
+	/**
+	 * the distances and shortest path tree of one source
+	 */
+	static final class Row {
+		final int source;
+		final int[] distance;
+		final int[] predecessor;
+
+		Row(int source, int[] distance, int[] predecessor) {
+			this.source = source;
+			this.distance = distance;
+			this.predecessor = predecessor;
+		}
+	}
+
+	AllPairs(Map<String, LSA> store) {
+		// LSAs never change, so the adjacency only has to be copied out once
+		Map<String, LSA> lsas = new HashMap<String, LSA>(store);
+		TreeSet<String> routers = new TreeSet<String>(lsas.keySet());
+		for (LSA lsa : lsas.values()) {
+			for (int i = 0; i < lsa.size(); i++) {
+				if (lsa.portNum(i) != LinkDescription.SUMMARY) {
+					routers.add(lsa.linkID(i));
+				}
+			}
+		}
+		names = routers.toArray(new String[0]);
+		for (int i = 0; i < names.length; i++) {
+			index.put(names[i], i);
+		}
+
+		outTarget = new int[names.length][];
+		outWeight = new int[names.length][];
+		// target => position in the row being built, or -1
+		int[] slot = new int[names.length];
+		Arrays.fill(slot, -1);
+		for (int origin = 0; origin < names.length; origin++) {
+			LSA lsa = lsas.get(names[origin]);
+			int count = 0;
+			int[] targets = new int[lsa == null ? 0 : lsa.size()];
+			int[] weights = new int[targets.length];
+			for (int i = 0; i < targets.length; i++) {
+				// the self entry and summary links are not real links; of parallel links the cheapest
+				// counts, as in the SPF
+				int portNum = lsa.portNum(i);
+				if (portNum == -1 || portNum == LinkDescription.SUMMARY) {
+					continue;
+				}
+				int target = index.get(lsa.linkID(i));
+				if (slot[target] != -1) {
+					weights[slot[target]] = Math.min(weights[slot[target]], lsa.tosMetrics(i));
+					continue;
+				}
+				slot[target] = count;
+				targets[count] = target;
+				weights[count] = lsa.tosMetrics(i);
+				count++;
+			}
+			for (int i = 0; i < count; i++) {
+				slot[targets[i]] = -1;
+			}
+			outTarget[origin] = Arrays.copyOf(targets, count);
+			outWeight[origin] = Arrays.copyOf(weights, count);
+		}
+	}
+
+	int size() {
+		return names.length;
+	}
+
+	String name(int router) {
+		return names[router];
+	}
+
+	/**
+	 * position of the router in name order, -1 if the snapshot does not know it
+	 */
+	int indexOf(String simulatedIP) {
+		Integer i = index.get(simulatedIP);
+		return i == null ? -1 : i;
+	}
+
+	/**
+	 * single-source dijkstra from the given router
+	 */
+	Row run(int source) {
+		int[] distance = new int[names.length];
+		int[] predecessor = new int[names.length];
+		Arrays.fill(distance, ShortestPathTree.UNREACHABLE);
+		Arrays.fill(predecessor, -1);
+		IndexedMinHeap heap = new IndexedMinHeap(names.length);
+
+		distance[source] = 0;
+		heap.offer(source, 0);
+		while (!heap.isEmpty()) {
+			int current = heap.poll();
+			int[] targets = outTarget[current];
+			int[] weights = outWeight[current];
+			for (int i = 0; i < targets.length; i++) {
+				int candidate = distance[current] + weights[i];
+				if (candidate < distance[targets[i]]) {
+					distance[targets[i]] = candidate;
+					predecessor[targets[i]] = current;
+					heap.offer(targets[i], candidate);
+				}
+			}
+		}
+		return new Row(source, distance, predecessor);
+	}
+
+	/**
+	 * run every source on the pool and hand the rows to the consumer in the order of sources; at
+	 * most twice the pool's parallelism rows are computed ahead of the consumer
+	 */
+	void runAll(int[] sources, ForkJoinPool pool, Consumer<Row> consumer) {
+		int ahead = Math.max(2, pool.getParallelism() * 2);
+		ArrayDeque<ForkJoinTask<Row>> running = new ArrayDeque<ForkJoinTask<Row>>();
+		int next = 0;
+		while (next < sources.length || !running.isEmpty()) {
+			while (next < sources.length && running.size() < ahead) {
+				final int source = sources[next++];
+				running.add(pool.submit(() -> run(source)));
+			}
+			consumer.accept(running.poll().join());
+		}
+	}
+
+	/**
+	 * run every source on the pool and hand each row to the consumer, on the calling thread, as soon
+	 * as it is done; at most twice the pool's parallelism rows are computed ahead of the consumer
+	 */
+	void runEach(int[] sources, ForkJoinPool pool, Consumer<Row> consumer) throws InterruptedException {
+		int ahead = Math.max(2, pool.getParallelism() * 2);
+		ExecutorCompletionService<Row> done = new ExecutorCompletionService<Row>(pool);
+		int next = 0;
+		int running = 0;
+		while (next < sources.length || running > 0) {
+			while (next < sources.length && running < ahead) {
+				final int source = sources[next++];
+				done.submit(() -> run(source));
+				running++;
+			}
+			Row row;
+			try {
+				row = done.take().get();
+			} catch (ExecutionException e) {
+				throw new IllegalStateException("SPF run failed", e.getCause());
+			}
+			running--;
+			consumer.accept(row);
+		}
+	}
+
+	/**
+	 * the path from the row's source to the destination, in the format of ShortestPathTree.pathTo
+	 */
+	String pathTo(Row row, int destination) {
+		if (row.distance[destination] == ShortestPathTree.UNREACHABLE) {
+			return names[destination];
+		}
+		// walk back from the destination, then emit the hops in order
+		int length = 0;
+		int[] hops = new int[names.length];
+		for (int current = destination; current != -1; current = row.predecessor[current]) {
+			hops[length++] = current;
+		}
+		StringBuilder sb = new StringBuilder(names[hops[length - 1]]);
+		for (int k = length - 2; k >= 0; k--) {
+			sb.append(" ->(").append(row.distance[hops[k]] - row.distance[hops[k + 1]]).append(") ").append(names[hops[k]]);
+		}
+		return sb.toString();
+	}
+}
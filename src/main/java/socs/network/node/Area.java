@@ -0,0 +1,60 @@
+package socs.network.node;
+
+import socs.network.message.LSA;
+import socs.network.util.Configuration;
+
+/**
+ * an area of the network as this router takes part in it through its links in the area: the link
+ * state database of the area, the flooding over those links and the origination of this router's
+ * LSA in it
+ * <p/>
+ * LSAs never leave their area, so the database, the flooding and the SPF only grow with the size of
+ * the area. A router with links in several areas is an area border router, which advertises the
+ * routers it reaches through one area to the others as summary links of its LSA, see
+ * Router.summarise; area 0 is the backbone, through which the other areas reach each other
+ */
+class Area {
+
+	static final int BACKBONE = 0;
+
+	final int id;
+	final LinkStateDatabase lsd;
+	final Flooder flooder;
+	// pacing of the origination of this router's LSA in the area
+	private final Throttle originationThrottle;
+
+	Area(Router router, int id, Configuration config) {
+		this.id = id;
+		lsd = new LinkStateDatabase(router.rd);
+		lsd.metrics = router.metrics;
+		lsd.spfThrottle = new Throttle(router.timer, config.getInt("socs.network.router.spf.interval", 50),
+				config.getInt("socs.network.router.spf.maxInterval", 2000), () -> lsd.runSpf());
+		lsd.spfListener = () -> router.rebuildForwardingTable();
+		flooder = new Flooder(router, this, config.getInt("socs.network.router.lsa.arrival", 50),
+				config.getInt("socs.network.router.lsa.maxArrival", 2000), config.getBoolean("socs.network.router.lsa.delta", true));
+		originationThrottle = new Throttle(router.timer, config.getInt("socs.network.router.lsa.interval", 100),
+				config.getInt("socs.network.router.lsa.maxInterval", 5000), () -> floodSelf());
+	}
+
+	/**
+	 * flood this router's LSA in the area after local changes to it; originations are paced by the
+	 * origination throttle, and all changes made until it runs go out as one new version
+	 */
+	void originate() {
+		originationThrottle.request();
+	}
+
+	private void floodSelf() {
+		LSA mine = lsd.originate();
+		flooder.flood(mine, null);
+		flooder.flush();
+		// the sequence numbers ran out and that was the flush, the next version starts over
+		if (mine.isFlush()) {
+			originate();
+		}
+	}
+
+	public String toString() {
+		return id == BACKBONE ? "backbone" : "area " + id;
+	}
+}
@@ -0,0 +1,148 @@
+package socs.network.node;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+import socs.network.message.LSA;
+import socs.network.message.PacketCodec;
+import socs.network.message.SOSPFPacket;
+
+/**
+ * the link state databases and ports of a router saved to a local file, so that a restarted router
+ * can route straight away and only has to fetch from its neighbours what changed while it was down
+ * <p/>
+ * layout, all big-endian:
+ * <pre>
+ *   magic(4) version(1) savedAt(8) simulatedIP(UTF) portCount(2)
+ *   per port: processIP(UTF) processPort(2) simulatedIP(UTF) weight(4) area(4)
+ *   areaCount(2), per area: length(4) and the area's LSAs as an LSAUPDATE in the PacketCodec encoding
+ * </pre>
+ * savedAt is the wall clock time of the save in ms; the LSAs carry their ages at that time, so a
+ * restore ages them by the time the router was down. The file is replaced as a whole on every save
+ */
+final class Checkpoint {
+
+	private static final int MAGIC = 0x534f4350;
+	private static final byte VERSION = 1;
+
+	private Checkpoint() {
+	}
+
+	/**
+	 * write the router's state to the file, through a temporary file so a crash never leaves half
+	 * of one behind
+	 */
+	static void save(Router router, File file) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		out.writeInt(MAGIC);
+		out.writeByte(VERSION);
+		out.writeLong(System.currentTimeMillis());
+		out.writeUTF(router.rd.simulatedIPAddress);
+
+		// a snapshot, as neighbours come and go while it is written
+		Link[] ports = router.ports.toArray(new Link[0]);
+		out.writeShort(ports.length);
+		for (Link link : ports) {
+			out.writeUTF(link.router2.processIPAddress);
+			out.writeShort(link.router2.processPortNumber);
+			out.writeUTF(link.router2.simulatedIPAddress);
+			out.writeInt(link.weight);
+			out.writeInt(link.area);
+		}
+
+		Area[] areas = router.areas.values().toArray(new Area[0]);
+		out.writeShort(areas.length);
+		for (Area area : areas) {
+			SOSPFPacket packet = new SOSPFPacket();
+			packet.sospfType = 1;
+			packet.srcIP = router.rd.simulatedIPAddress;
+			packet.areaID = area.id;
+			for (String originator : area.lsd._store.keySet()) {
+				LSA lsa = area.lsd.aged(originator);
+				if (lsa != null) {
+					packet.lsaArray.add(lsa);
+				}
+			}
+			ByteBuffer encoded = PacketCodec.encode(packet);
+			out.writeInt(encoded.remaining());
+			out.write(encoded.array(), encoded.arrayOffset() + encoded.position(), encoded.remaining());
+		}
+		out.flush();
+
+		File temporary = new File(file.getPath() + ".tmp");
+		Files.write(temporary.toPath(), bytes.toByteArray());
+		Files.move(temporary.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	/**
+	 * put the state saved in the file back into the router, which has not started yet; LSAs that
+	 * reached the router's maximum age while it was down are left out
+	 *
+	 * @return the number of LSAs restored
+	 */
+	static int restore(Router router, File file) throws IOException {
+		DataInputStream in = new DataInputStream(new ByteArrayInputStream(Files.readAllBytes(file.toPath())));
+		try {
+			if (in.readInt() != MAGIC) {
+				throw new IOException(file + " is not a checkpoint");
+			}
+			byte version = in.readByte();
+			if (version != VERSION) {
+				throw new IOException("unsupported checkpoint version " + version);
+			}
+			long down = Math.max(0, System.currentTimeMillis() - in.readLong()) / 1000;
+			String self = in.readUTF();
+			if (!self.equals(router.rd.simulatedIPAddress)) {
+				throw new IOException(file + " is the checkpoint of " + self);
+			}
+
+			int portCount = in.readUnsignedShort();
+			for (int i = 0; i < portCount; i++) {
+				RouterDescription remote = new RouterDescription();
+				remote.processIPAddress = in.readUTF();
+				remote.processPortNumber = in.readShort();
+				remote.simulatedIPAddress = in.readUTF();
+				int weight = in.readInt();
+				int area = in.readInt();
+				router.area(area);
+				Link link = new Link(router.rd, remote, weight, area);
+				link.restored = true;
+				router.ports.add(link);
+			}
+
+			int restored = 0;
+			int areaCount = in.readUnsignedShort();
+			for (int i = 0; i < areaCount; i++) {
+				byte[] encoded = new byte[in.readInt()];
+				in.readFully(encoded);
+				SOSPFPacket packet = PacketCodec.decode(ByteBuffer.wrap(encoded));
+				LinkStateDatabase lsd = router.area(packet.areaID).lsd;
+				for (LSA lsa : packet.lsaArray) {
+					long age = lsa.lsaAge + down;
+					if (lsa.linkStateID.equals(self)) {
+						// ours is refreshed once it is old, never flushed
+						lsa = lsa.withAge((int) Math.min(age, LSA.MAX_AGE - 1));
+					} else if (age >= router.maxAge) {
+						continue;
+					} else {
+						lsa = lsa.withAge((int) age);
+					}
+					lsd.restore(lsa);
+					restored++;
+				}
+			}
+			return restored;
+		} catch (EOFException e) {
+			throw new IOException(file + " is truncated");
+		}
+	}
+}
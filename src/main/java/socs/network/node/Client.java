@@ -1,75 +1,86 @@
 package socs.network.node;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
-import java.net.Socket;
+import java.io.IOException;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import socs.network.message.SOSPFPacket;
 
+/**
+ * protocol handler of a channel this router opened; it starts the HELLO exchange
+ */
 public class Client extends ServerThread {
 
-	private Link link;
+	private static final Logger log = LoggerFactory.getLogger(Client.class);
 
-	public Client(Socket socket, Router router, Link link) {
-		super(socket, router);
+	public Client(Router router, Link link) {
+		super(router);
 		this.link = link;
 	}
 
-	public void run() {
-
-		ObjectInputStream inputStream = null;
-		ObjectOutputStream outputStream = null;
-
-		try {
-
-			// create new SOSPF packet with HELLO message
-			SOSPFPacket message = new SOSPFPacket();
-			message.sospfType = 0;
-			message.neighborID = router.rd.simulatedIPAddress;
-			message.srcProcessIP = router.rd.processIPAddress;
-			message.srcProcessPort = router.rd.processPortNumber;
-			message.neighborID = router.rd.simulatedIPAddress;
-			message.srcWeight = link.weight;
-
-			// send packet	
-			outputStream = new ObjectOutputStream(socket.getOutputStream());
-			outputStream.writeObject(message); //Throws Exceptions
-
-			// get response
-			inputStream = new ObjectInputStream(socket.getInputStream());
-			SOSPFPacket response = (SOSPFPacket) inputStream.readObject();
-
-			// check response is of sospfType HELLO
-			if (response.sospfType == 0) {
-				System.out.println("\nreceived HELLO from " + response.neighborID + ";");
-				
-				// set myRouter.neighbourID.status to TWO_WAY
-				for (Link currLink : router.ports) {
-					if (currLink.router2.simulatedIPAddress.equals(response.neighborID)) {
-
-						currLink.router2.status = RouterStatus.TWO_WAY;
-						System.out.println("set " + response.neighborID + " state to TWO_WAY;");
-					}
-				}
+	// create new SOSPF packet with HELLO message
+	private SOSPFPacket hello() {
+		SOSPFPacket message = new SOSPFPacket();
+		message.sospfType = 0;
+		message.neighborID = router.rd.simulatedIPAddress;
+		message.srcProcessIP = router.rd.processIPAddress;
+		message.srcProcessPort = router.rd.processPortNumber;
+		message.neighborID = router.rd.simulatedIPAddress;
+		message.srcWeight = link.weight;
+		message.areaID = link.area;
+		return message;
+	}
+
+	/**
+	 * send the first HELLO, the rest of the exchange happens as the replies arrive
+	 */
+	void start() throws IOException {
+		channel.send(hello());
+	}
+
+	protected void handle(SOSPFPacket response) throws IOException {
 
-				// send HELLO again
-				outputStream.writeObject(message);
+		// check response is of sospfType HELLO, answering ours
+		if (response.sospfType == 0 && !twoWay) {
+			log.info("{}: received HELLO from {}", router.rd.simulatedIPAddress, response.neighborID);
 
-				// send LSP
-				sendLSP(updateLSA(link, 0));
+			// both ends must have attached the link in the same area, the neighbour answers with its own
+			if (response.areaID != link.area) {
+				log.warn("{}: {} is attached in area {}, not {}, refusing it", router.rd.simulatedIPAddress, response.neighborID,
+						response.areaID, link.area);
+				router.ports.remove(link);
+				channel.close();
+				return;
 			}
-			
-		} catch (Exception e) {
-			e.printStackTrace();
-		} finally {
-			try {
-				inputStream.close();
-				outputStream.close();
-				socket.close();
-			} catch (Exception e) {
-				e.printStackTrace();
+
+			// set myRouter.neighbourID.status to TWO_WAY
+			for (Link currLink : router.ports) {
+				if (currLink.router2.simulatedIPAddress.equals(response.neighborID)) {
+
+					currLink.heard();
+					currLink.router2.status = RouterStatus.TWO_WAY;
+					log.info("{}: set {} state to TWO_WAY", router.rd.simulatedIPAddress, response.neighborID);
+				}
 			}
+
+			// the connection stays open for all later traffic with this neighbour
+			Area area = router.area(link.area);
+			area.flooder.reset(link);
+			link.channel = channel;
+			twoWay = true;
+
+			// send HELLO again
+			channel.send(hello());
+
+			// send LSP
+			updateLSA(link, 0);
+			area.originate();
+			// and sync the databases
+			area.flooder.describe(link);
+			return;
 		}
+
+		super.handle(response);
 	}
 
 }
@@ -0,0 +1,85 @@
+package socs.network.node;
+
+import java.io.IOException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * selector thread doing the accept, read and write work for a share of the router's channels; all
+ * selector and key operations run on this thread, other threads hand work over through execute
+ */
+class EventLoop extends Thread {
+
+	private static final Logger log = LoggerFactory.getLogger(EventLoop.class);
+
+	private final Selector selector;
+	private final ConcurrentLinkedQueue<Runnable> tasks = new ConcurrentLinkedQueue<Runnable>();
+
+	EventLoop(String name) throws IOException {
+		super(name);
+		setDaemon(true);
+		selector = Selector.open();
+	}
+
+	/**
+	 * run the task on this loop, after the current round of I/O
+	 */
+	void execute(Runnable task) {
+		tasks.add(task);
+		selector.wakeup();
+	}
+
+	// only called on this loop
+	SelectionKey register(SelectableChannel channel, int ops, Object attachment) throws ClosedChannelException {
+		return channel.register(selector, ops, attachment);
+	}
+
+	public void run() {
+		while (true) {
+			try {
+				selector.select();
+
+				Runnable task;
+				while ((task = tasks.poll()) != null) {
+					task.run();
+				}
+
+				Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+				while (keys.hasNext()) {
+					SelectionKey key = keys.next();
+					keys.remove();
+					if (!key.isValid()) {
+						continue;
+					}
+
+					if (key.attachment() instanceof Server) {
+						((Server) key.attachment()).accept();
+						continue;
+					}
+
+					SocketNeighborChannel channel = (SocketNeighborChannel) key.attachment();
+					try {
+						if (key.isReadable()) {
+							channel.onReadable();
+						}
+						if (key.isValid() && key.isWritable()) {
+							channel.onWritable();
+						}
+					} catch (IOException e) {
+						log.warn("Channel {} failed: {}", channel, e.getMessage());
+						channel.closeNow();
+					}
+				}
+			} catch (Exception e) {
+				log.error("Event loop " + getName() + " failed", e);
+			}
+		}
+	}
+}
@@ -0,0 +1,53 @@
+package socs.network.node;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * where the ServerThread and Client tasks of a router run, picked with
+ * socs.network.router.execution in the router conf
+ */
+public enum ExecutionMode {
+
+	// a fixed pool of platform threads with a bounded queue; when the queue is full a task is
+	// rejected, and a ServerThread then stops reading from its channel until the workers catch up,
+	// rather than running on the event loop and stalling every other channel of it
+	PLATFORM,
+
+	// one virtual thread per task; needs a JDK with virtual threads, otherwise PLATFORM is used
+	VIRTUAL;
+
+	private static final int QUEUE_SIZE = 1024;
+	private static final Logger log = LoggerFactory.getLogger(ExecutionMode.class);
+
+	ExecutorService create(int workers) {
+		if (this == VIRTUAL) {
+			try {
+				Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+				return (ExecutorService) factory.invoke(null);
+			} catch (Exception e) {
+				log.info("Virtual threads are not available on this JVM, using {} platform threads", workers);
+			}
+		}
+
+		final AtomicInteger count = new AtomicInteger();
+		ThreadFactory threads = new ThreadFactory() {
+			public Thread newThread(Runnable task) {
+				Thread thread = new Thread(task, "router-worker-" + count.getAndIncrement());
+				thread.setDaemon(true);
+				return thread;
+			}
+		};
+		return new ThreadPoolExecutor(workers, workers, 0L, TimeUnit.MILLISECONDS,
+				new ArrayBlockingQueue<Runnable>(QUEUE_SIZE), threads, new ThreadPoolExecutor.AbortPolicy());
+	}
+}
@@ -0,0 +1,343 @@
+package socs.network.node;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import socs.network.message.LSA;
+import socs.network.message.LSADelta;
+import socs.network.message.SOSPFPacket;
+
+/**
+ * floods LSAs to the neighbours that still need them
+ * <p/>
+ * an LSA is never sent back to the neighbour it came from or to the router that originated it, nor
+ * to a neighbour known to have that version already. LSAs are queued per neighbour and flush sends
+ * everything queued for a neighbour in a single LSAUPDATE; a newer LSA of an originator replaces an
+ * older one still waiting in the queue
+ * <p/>
+ * new LSAs of other originators are paced by a Throttle per originator: one arriving within the
+ * hold of the previous one is held back and installed when the hold is over, replaced by any newer
+ * version arriving meanwhile. The hold starts at minArrival and doubles up to maxArrival while the
+ * originator keeps changing its LSA, so a flapping originator is installed and flooded ever less
+ * often; it falls back to minArrival once the originator is quiet. Copies that are not newer than
+ * ours do not count
+ * <p/>
+ * with deltas enabled, an LSA going to a neighbour that has an older version of it is sent as the
+ * difference to that version when that is smaller. A neighbour receiving a delta it has no base for
+ * asks for the full LSA with an LSREQUEST
+ * <p/>
+ * when an adjacency comes up both ends describe their database to each other in a DBD, the
+ * originator and sequence number of every LSA, and request in one LSREQUEST whatever the other end
+ * has newer
+ * <p/>
+ * a flush, an LSA at MAX_AGE, is flooded like any other LSA as long as it removes one; a copy of our
+ * own LSA newer than ours is never installed, we originate a version newer still instead
+ * <p/>
+ * every area has its own flooder, which only floods over the links in that area
+ */
+class Flooder {
+
+	private static final Logger log = LoggerFactory.getLogger(Flooder.class);
+
+	private final Router router;
+	private final Area area;
+	private final long minArrival;
+	private final long maxArrival;
+	private final boolean deltas;
+
+	// originator => pacing of the installs of its LSAs
+	private final ConcurrentHashMap<String, Throttle> arrivals = new ConcurrentHashMap<String, Throttle>();
+	// originator => newest LSA held back by its arrival throttle
+	private final ConcurrentHashMap<String, Parked> parked = new ConcurrentHashMap<String, Parked>();
+
+	Flooder(Router router, Area area, long minArrival, long maxArrival, boolean deltas) {
+		this.router = router;
+		this.area = area;
+		this.minArrival = minArrival;
+		this.maxArrival = maxArrival;
+		this.deltas = deltas;
+	}
+
+	/**
+	 * an LSA arrived from a neighbour; if it is newer than ours it is installed and queued for the
+	 * other neighbours
+	 */
+	void receive(final LSA lsa, final Link from) {
+		router.metrics.lsasReceived.increment();
+		// the neighbour sent us this LSA, so it has at least this version
+		if (from != null) {
+			seen(from, lsa);
+		}
+
+		// copies of our own LSA lead to an origination at most, which has its own throttle
+		String originator = lsa.linkStateID;
+		if (originator.equals(router.rd.simulatedIPAddress)) {
+			install(lsa, from);
+			return;
+		}
+		// every neighbour floods us the same version, only a newer one is a change of the originator
+		LSA current = area.lsd._store.get(originator);
+		if (current != null && !lsa.isNewerThan(current)) {
+			router.metrics.lsasDuplicate.increment();
+			return;
+		}
+
+		// parked first, so a run of the throttle that is already due finds it
+		parked.merge(originator, new Parked(lsa, from), (held, next) -> next.lsa.isNewerThan(held.lsa) ? next : held);
+		Throttle arrival = arrivals.computeIfAbsent(originator,
+				id -> new Throttle(router.timer, minArrival, maxArrival, () -> release(id)));
+		if (arrival.requestNow()) {
+			Parked held = parked.remove(originator);
+			if (held != null) {
+				install(held.lsa, held.from);
+			}
+		}
+	}
+
+	/**
+	 * a delta arrived from a neighbour; applied to our copy when that is its base, otherwise the full
+	 * LSA is requested unless ours is as new already
+	 */
+	void receive(LSADelta delta, Link from) {
+		router.metrics.deltasReceived.increment();
+		LSA current = area.lsd._store.get(delta.linkStateID);
+		if (current != null && current.lsaSeqNumber == delta.baseSeqNumber) {
+			receive(delta.applyTo(current), from);
+			return;
+		}
+		if (current != null && current.lsaSeqNumber >= delta.lsaSeqNumber) {
+			router.metrics.lsasReceived.increment();
+			router.metrics.lsasDuplicate.increment();
+			return;
+		}
+
+		// sequence gap, we do not have the version the delta was made against
+		if (log.isDebugEnabled()) {
+			log.debug("{}: no base {} for delta of {}, requesting it", router.rd.simulatedIPAddress, delta.baseSeqNumber, delta.linkStateID);
+		}
+		if (from != null) {
+			SOSPFPacket LSR = packet(from, (short) 3);
+			LSR.lsaArray.add(header(delta.linkStateID, current));
+			send(from, LSR, "LSREQUEST");
+		}
+	}
+
+	/**
+	 * a new adjacency is up; tell the neighbour which LSAs we have
+	 */
+	void describe(Link link) {
+		SOSPFPacket DBD = packet(link, (short) 4);
+		for (LSA lsa : area.lsd._store.values()) {
+			DBD.lsaArray.add(header(lsa.linkStateID, lsa));
+		}
+		send(link, DBD, "DBD");
+	}
+
+	/**
+	 * the neighbour described its database; every LSA it has newer than ours, or that we lack, is
+	 * requested in a single LSREQUEST
+	 */
+	void receiveDescription(List<LSA> headers, Link from) {
+		SOSPFPacket LSR = packet(from, (short) 3);
+		for (LSA header : headers) {
+			LSA ours = area.lsd._store.get(header.linkStateID);
+			if (ours == null || ours.lsaSeqNumber < header.lsaSeqNumber) {
+				LSR.lsaArray.add(header(header.linkStateID, ours));
+			} else if (ours.lsaSeqNumber == header.lsaSeqNumber && !header.linkStateID.equals(router.rd.simulatedIPAddress)) {
+				// same version, no need to flood it there; our own LSA may have unflooded changes at this number
+				seen(from, ours);
+			}
+		}
+		if (!LSR.lsaArray.isEmpty()) {
+			send(from, LSR, "LSREQUEST");
+		}
+	}
+
+	/**
+	 * the neighbour asked for the full LSA of the originator; queued for the next flush
+	 */
+	void request(Link link, String originator) {
+		LSA lsa = area.lsd.aged(originator);
+		if (lsa == null) {
+			return;
+		}
+		// whatever we assumed it has, it did not have the base
+		link.known.remove(originator);
+		queue(link, lsa);
+	}
+
+	private void install(LSA lsa, Link from) {
+		if (lsa.linkStateID.equals(router.rd.simulatedIPAddress)) {
+			installOwn(lsa);
+			return;
+		}
+		if (area.lsd.installIfNewer(lsa)) {
+			if (lsa.isFlush()) {
+				arrivals.remove(lsa.linkStateID);
+			}
+			router.metrics.lsasInstalled.increment();
+			if (log.isDebugEnabled()) {
+				log.debug("{}: installed LSA of {} seq {} from {}", router.rd.simulatedIPAddress, lsa.linkStateID, lsa.lsaSeqNumber,
+						from == null ? "self" : from.router2.simulatedIPAddress);
+			}
+			flood(lsa, from);
+		} else {
+			router.metrics.lsasDuplicate.increment();
+		}
+	}
+
+	// a copy of our own LSA came back; one newer than what we flooded last is left from before a
+	// restart or a flush, and the other routers only drop it for a newer version
+	private void installOwn(LSA lsa) {
+		LSA mine = area.lsd.published(router.rd.simulatedIPAddress);
+		if (mine != null && !lsa.isNewerThan(mine)) {
+			router.metrics.lsasDuplicate.increment();
+			return;
+		}
+		log.info("{}: a neighbour has version {} of my LSA, originating a newer one", router.rd.simulatedIPAddress, lsa.lsaSeqNumber);
+		area.lsd.outdated(lsa.lsaSeqNumber);
+		area.originate();
+	}
+
+	// the arrival hold of the originator is over
+	private void release(String originator) {
+		Parked held = parked.remove(originator);
+		if (held != null) {
+			install(held.lsa, held.from);
+			flush();
+		}
+	}
+
+	/**
+	 * queue the LSA for every neighbour that needs it; from is the link it arrived on, null when this
+	 * router originated it
+	 */
+	void flood(LSA lsa, Link from) {
+		for (Link link : router.ports) {
+			if (link == from || link.channel == null || link.area != area.id) {
+				continue;
+			}
+			if (link.router2.simulatedIPAddress.equals(lsa.linkStateID) || has(link, lsa)) {
+				continue;
+			}
+			queue(link, lsa);
+		}
+	}
+
+	/**
+	 * send everything queued, one packet per neighbour
+	 */
+	void flush() {
+		for (Link link : router.ports) {
+			if (link.area != area.id || link.pending.isEmpty()) {
+				continue;
+			}
+
+			SOSPFPacket LSP = packet(link, (short) 1);
+
+			// take the queued LSAs one by one, another thread flushing at the same time gets the rest
+			List<LSA> sent = new ArrayList<LSA>();
+			for (String originator : link.pending.keySet()) {
+				LSA lsa = link.pending.remove(originator);
+				if (lsa == null) {
+					continue;
+				}
+				sent.add(lsa);
+
+				LSA base = deltas && !lsa.isFlush() ? link.known.get(originator) : null;
+				if (base != null && base.lsaSeqNumber < lsa.lsaSeqNumber) {
+					LSADelta delta = LSADelta.between(base, lsa);
+					if (delta.size() < lsa.size()) {
+						LSP.deltaArray.add(delta);
+						continue;
+					}
+				}
+				LSP.lsaArray.add(lsa);
+			}
+			if (sent.isEmpty() || link.channel == null) {
+				continue;
+			}
+
+			try {
+				link.channel.send(LSP);
+				router.metrics.lsasFlooded.add(sent.size());
+				router.metrics.deltasFlooded.add(LSP.deltaArray.size());
+				if (log.isDebugEnabled()) {
+					log.debug("{}: sent {} LSAs and {} deltas to {}", router.rd.simulatedIPAddress, LSP.lsaArray.size(), LSP.deltaArray.size(),
+							link.router2.simulatedIPAddress);
+				}
+				for (LSA lsa : sent) {
+					seen(link, lsa);
+				}
+			} catch (Exception e) {
+				log.warn("{}: could not send LSAUPDATE to {}: {}", router.rd.simulatedIPAddress, link.router2.simulatedIPAddress, e.getMessage());
+			}
+		}
+	}
+
+	/**
+	 * forget what the neighbour knows, its next adjacency starts from scratch
+	 */
+	void reset(Link link) {
+		link.known.clear();
+		link.pending.clear();
+	}
+
+	private boolean has(Link link, LSA lsa) {
+		LSA known = link.known.get(lsa.linkStateID);
+		return known != null && !lsa.isNewerThan(known);
+	}
+
+	// a flushed LSA is gone from the neighbour, so there is nothing left to remember for it
+	private void seen(Link link, LSA lsa) {
+		if (lsa.isFlush()) {
+			link.known.remove(lsa.linkStateID);
+			return;
+		}
+		link.known.merge(lsa.linkStateID, lsa, (known, next) -> next.isNewerThan(known) ? next : known);
+	}
+
+	// originator and sequence number of the LSA, without its links; the lowest number when there is none
+	private static LSA header(String originator, LSA lsa) {
+		return new LSA(originator, lsa == null ? Integer.MIN_VALUE : lsa.lsaSeqNumber);
+	}
+
+	private void send(Link link, SOSPFPacket packet, String kind) {
+		try {
+			if (link.channel != null) {
+				link.channel.send(packet);
+			}
+		} catch (Exception e) {
+			log.warn("{}: could not send {} to {}: {}", router.rd.simulatedIPAddress, kind, link.router2.simulatedIPAddress, e.getMessage());
+		}
+	}
+
+	private SOSPFPacket packet(Link link, short type) {
+		SOSPFPacket packet = new SOSPFPacket();
+		packet.srcProcessIP = router.rd.processIPAddress;
+		packet.srcProcessPort = router.rd.processPortNumber;
+		packet.srcIP = router.rd.simulatedIPAddress;
+		packet.dstIP = link.router2.simulatedIPAddress;
+		packet.sospfType = type;
+		packet.neighborID = router.rd.simulatedIPAddress;
+		return packet;
+	}
+
+	private void queue(Link link, LSA lsa) {
+		link.pending.merge(lsa.linkStateID, lsa, (queued, next) -> next.isNewerThan(queued) ? next : queued);
+	}
+
+	private static class Parked {
+		final LSA lsa;
+		final Link from;
+
+		Parked(LSA lsa, Link from) {
+			this.lsa = lsa;
+			this.from = from;
+		}
+	}
+}
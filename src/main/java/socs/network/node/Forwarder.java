@@ -0,0 +1,202 @@
+package socs.network.node;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import socs.network.message.PacketCodec;
+import socs.network.message.SOSPFPacket;
+
+/**
+ * data plane: forwards DATA packets hop by hop along the forwarding table
+ * <p/>
+ * every router on the way decrements the ttl and drops the packet when it runs out. The destination
+ * answers each packet with an echo, so the sender measures the round trip with its own clock. Where
+ * the table has several equal-cost links, flows are spread over them by a hash of their source and
+ * destination, so the packets of one flow take one path and stay in order
+ */
+class Forwarder {
+
+	// how long send waits for echoes, plus a millisecond per packet
+	private static final long ECHO_TIMEOUT = 2000;
+
+	private final Router router;
+	private final int ttl;
+
+	private final AtomicInteger nextSeq = new AtomicInteger();
+	// packets dropped here, by ttl or for lack of a route
+	final LongAdder dropped = new LongAdder();
+	// the send command waiting for its echoes, if any
+	private volatile Probe probe;
+
+	Forwarder(Router router, int ttl) {
+		this.router = router;
+		this.ttl = ttl;
+	}
+
+	/**
+	 * a DATA packet arrived from the given neighbour
+	 */
+	void receive(SOSPFPacket packet, Link from) {
+		if (from != null) {
+			from.packetsIn.increment();
+			from.bytesIn.add(length(packet));
+		}
+
+		if (!router.rd.simulatedIPAddress.equals(packet.dstIP)) {
+			if (--packet.ttl <= 0) {
+				dropped.increment();
+				return;
+			}
+			forward(packet);
+			return;
+		}
+
+		if (packet.echo) {
+			Probe waiting = probe;
+			if (waiting != null) {
+				waiting.echoed(packet);
+			}
+			return;
+		}
+
+		// answer with an echo, without the payload
+		SOSPFPacket echo = packet(packet.srcIP, packet.dataSeq, 0);
+		echo.timestamp = packet.timestamp;
+		echo.echo = true;
+		forward(echo);
+	}
+
+	/**
+	 * send count packets with a payload of size bytes to the destination and wait for their echoes;
+	 * prints the throughput and round trip times
+	 */
+	void send(String destinationIP, int count, int size) throws InterruptedException {
+		if (router.rd.simulatedIPAddress.equals(destinationIP)) {
+			System.out.println("ERROR: Cannot send to myself.");
+			return;
+		}
+		if (router.route(destinationIP) == null) {
+			System.out.println("ERROR: No route to " + destinationIP + ".");
+			return;
+		}
+
+		int first = nextSeq.getAndAdd(count);
+		Probe waiting = new Probe(first, count);
+		probe = waiting;
+
+		long start = System.nanoTime();
+		int sent = 0;
+		for (int i = 0; i < count; i++) {
+			SOSPFPacket packet = packet(destinationIP, first + i, size);
+			packet.timestamp = System.nanoTime();
+			if (forward(packet)) {
+				sent++;
+			}
+		}
+		long elapsed = System.nanoTime() - start;
+
+		boolean complete = waiting.done.await(ECHO_TIMEOUT + count, TimeUnit.MILLISECONDS);
+		probe = null;
+
+		double seconds = Math.max(elapsed, 1) / 1e9;
+		System.out.println(String.format("INFO: Sent %d of %d packets of %d bytes to %s in %.1f ms (%.0f packets/s, %.2f Mbit/s)",
+				sent, count, size, destinationIP, elapsed / 1e6, sent / seconds, sent * (double) size * 8 / seconds / 1e6));
+		synchronized (waiting) {
+			if (waiting.received == 0) {
+				System.out.println("INFO: No echoes received.");
+			} else {
+				System.out.println(String.format("INFO: %d echoes received%s, round trip min/avg/max %.3f/%.3f/%.3f ms",
+						waiting.received, complete ? "" : " before the timeout", waiting.min / 1e6,
+						waiting.total / 1e6 / waiting.received, waiting.max / 1e6));
+			}
+		}
+	}
+
+	// hand the packet to the port the forwarding table has for its destination
+	private boolean forward(SOSPFPacket packet) {
+		ForwardingTable.Entry entry = router.route(packet.dstIP);
+		if (entry == null || entry.link == null) {
+			dropped.increment();
+			return false;
+		}
+		Link link = entry.link;
+		String hop = entry.hop;
+		if (entry.links.length > 1) {
+			int path = Math.floorMod(31 * packet.srcIP.hashCode() + packet.dstIP.hashCode(), entry.links.length);
+			link = entry.links[path];
+			hop = entry.hops[path];
+		}
+
+		// the neighbour went away after the table was built, the next table has a route around it;
+		// never send to a link that does not lead to the first hop the table computed
+		if (!router.ports.contains(link) || !hop.equals(link.router2.simulatedIPAddress)) {
+			dropped.increment();
+			return false;
+		}
+		NeighborChannel channel = link.channel;
+		if (channel == null) {
+			dropped.increment();
+			return false;
+		}
+		try {
+			channel.send(packet);
+		} catch (Exception e) {
+			dropped.increment();
+			return false;
+		}
+		link.packetsOut.increment();
+		link.bytesOut.add(length(packet));
+		return true;
+	}
+
+	private SOSPFPacket packet(String destinationIP, int seq, int size) {
+		SOSPFPacket packet = new SOSPFPacket();
+		packet.sospfType = PacketCodec.DATA;
+		packet.srcProcessIP = router.rd.processIPAddress;
+		packet.srcProcessPort = router.rd.processPortNumber;
+		packet.srcIP = router.rd.simulatedIPAddress;
+		packet.dstIP = destinationIP;
+		packet.ttl = ttl;
+		packet.dataSeq = seq;
+		packet.payload = new byte[size];
+		return packet;
+	}
+
+	private static int length(SOSPFPacket packet) {
+		return packet.payload == null ? 0 : packet.payload.length;
+	}
+
+	// echoes of one send command
+	private static class Probe {
+		final int first;
+		final int count;
+		final CountDownLatch done;
+		int received = 0;
+		long min = Long.MAX_VALUE;
+		long max = 0;
+		long total = 0;
+
+		Probe(int first, int count) {
+			this.first = first;
+			this.count = count;
+			this.done = new CountDownLatch(count);
+		}
+
+		void echoed(SOSPFPacket packet) {
+			// echoes of an earlier send that timed out
+			if (packet.dataSeq - first < 0 || packet.dataSeq - first >= count) {
+				return;
+			}
+			long rtt = System.nanoTime() - packet.timestamp;
+			synchronized (this) {
+				received++;
+				min = Math.min(min, rtt);
+				max = Math.max(max, rtt);
+				total += rtt;
+			}
+			done.countDown();
+		}
+	}
+}
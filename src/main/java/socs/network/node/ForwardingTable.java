@@ -0,0 +1,170 @@
+package socs.network.node;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * forwarding table: destination simulated ip => link to the first hop and total cost
+ * <p/>
+ * a table never changes once built; the router builds a new one after every SPF run and swaps it in
+ * as a whole, so lookups need no locking and always see one consistent table
+ * <p/>
+ * with several areas the routes of all of them go into one table: a route inside an area beats a
+ * route to another area whatever their costs, and an area border router only takes routes to other
+ * areas from the backbone
+ */
+final class ForwardingTable {
+
+	static final ForwardingTable EMPTY = new ForwardingTable(Collections.<String, Entry>emptyMap());
+
+	static final class Entry {
+		// the link to the first hop on the shortest path, null for this router itself; the link, not
+		// its position in Router.ports, as positions shift whenever a neighbour goes away and the
+		// table is only rebuilt after the SPF throttle. The link may be gone by the time it is used
+		final Link link;
+		// the first hop, as the shortest path tree has it
+		final String hop;
+		// the link to the first hop of every equal-cost path, link among them, and those first hops
+		final Link[] links;
+		final String[] hops;
+		final int cost;
+		// the area whose shortest path tree the route comes from
+		final int area;
+
+		Entry(Link link, String hop, Link[] links, String[] hops, int cost, int area) {
+			this.link = link;
+			this.hop = hop;
+			this.links = links;
+			this.hops = hops;
+			this.cost = cost;
+			this.area = area;
+		}
+	}
+
+	private final Map<String, Entry> entries;
+
+	private ForwardingTable(Map<String, Entry> entries) {
+		this.entries = entries;
+	}
+
+	/**
+	 * the table for the shortest path tree snapshots of the given areas; destinations whose first hop
+	 * is not on any port of the area are left out
+	 */
+	static ForwardingTable build(String self, Collection<Area> areas, List<Link> ports) {
+		// area => neighbour ip => link, over one snapshot of the ports
+		HashMap<Integer, HashMap<String, Link>> portsOf = new HashMap<Integer, HashMap<String, Link>>();
+		for (Link link : ports) {
+			HashMap<String, Link> portOf = portsOf.get(link.area);
+			if (portOf == null) {
+				portOf = new HashMap<String, Link>();
+				portsOf.put(link.area, portOf);
+			}
+			if (!portOf.containsKey(link.router2.simulatedIPAddress)) {
+				portOf.put(link.router2.simulatedIPAddress, link);
+			}
+		}
+		boolean border = portsOf.size() > 1;
+
+		HashMap<String, Entry> entries = new HashMap<String, Entry>();
+		// destinations whose entry is a route inside its area
+		HashSet<String> local = new HashSet<String>();
+		entries.put(self, new Entry(null, null, new Link[0], new String[0], 0, Area.BACKBONE));
+		for (Area area : areas) {
+			HashMap<String, Link> portOf = portsOf.get(area.id);
+			if (portOf != null) {
+				add(self, area, border, portOf, entries, local);
+			}
+		}
+		return new ForwardingTable(entries);
+	}
+
+	// the routes of one area, where they beat the ones of the areas before
+	private static void add(String self, Area area, boolean border, HashMap<String, Link> portOf, HashMap<String, Entry> entries,
+			HashSet<String> local) {
+		ShortestPathTree tree = area.lsd.shortestPathTree();
+		for (String destination : tree.routers()) {
+			int cost = tree.distanceTo(destination);
+			if (destination.equals(self) || cost == ShortestPathTree.UNREACHABLE) {
+				continue;
+			}
+			boolean inside = !tree.isSummarised(destination);
+			if (!inside && border && area.id != Area.BACKBONE) {
+				continue;
+			}
+			if (!better(inside, cost, entries.get(destination), local.contains(destination))) {
+				continue;
+			}
+			String first = tree.firstHop(destination);
+			Link link = portOf.get(first);
+			if (link == null) {
+				continue;
+			}
+
+			Set<String> hops = tree.nextHops(destination);
+			List<Link> equal = new ArrayList<Link>(hops.size());
+			List<String> equalHops = new ArrayList<String>(hops.size());
+			for (String hop : hops) {
+				Link other = portOf.get(hop);
+				if (other != null) {
+					equal.add(other);
+					equalHops.add(hop);
+				}
+			}
+			entries.put(destination, new Entry(link, first, equal.toArray(new Link[0]), equalHops.toArray(new String[0]), cost,
+					area.id));
+			if (inside) {
+				local.add(destination);
+			}
+		}
+	}
+
+	// a route inside the area beats a route to another area, otherwise the cheaper one wins
+	private static boolean better(boolean inside, int cost, Entry best, boolean bestInside) {
+		if (best == null) {
+			return true;
+		}
+		if (inside != bestInside) {
+			return inside;
+		}
+		return cost < best.cost;
+	}
+
+	/**
+	 * the entry for the destination, null if it cannot be reached
+	 */
+	Entry lookup(String destinationIP) {
+		return entries.get(destinationIP);
+	}
+
+	int size() {
+		return entries.size();
+	}
+
+	/**
+	 * one line per destination, in order of the destination ip
+	 */
+	public String toString() {
+		StringBuilder sb = new StringBuilder();
+		for (Map.Entry<String, Entry> e : new TreeMap<String, Entry>(entries).entrySet()) {
+			Entry entry = e.getValue();
+			sb.append(e.getKey()).append("\tvia ").append(entry.link == null ? "local" : entry.link.router2.simulatedIPAddress)
+					.append("\tcost ").append(entry.cost);
+			if (entry.links.length > 1) {
+				sb.append("\tequal-cost via");
+				for (Link link : entry.links) {
+					sb.append(' ').append(link.router2.simulatedIPAddress);
+				}
+			}
+			sb.append('\n');
+		}
+		return sb.toString();
+	}
+}
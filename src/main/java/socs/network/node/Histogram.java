@@ -0,0 +1,66 @@
+package socs.network.node;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * distribution of non-negative values in power of two buckets; recording is lock free, percentiles
+ * are the upper bound of the bucket they fall in, so they are exact to within a factor of two
+ */
+class Histogram {
+
+	// bucket 0 counts zeroes, bucket i values from 2^(i-1) to 2^i - 1
+	private final AtomicLongArray buckets = new AtomicLongArray(65);
+	private final LongAdder count = new LongAdder();
+	private final LongAdder sum = new LongAdder();
+	private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+	void record(long value) {
+		value = Math.max(value, 0);
+		buckets.incrementAndGet(64 - Long.numberOfLeadingZeros(value));
+		count.increment();
+		sum.add(value);
+		max.accumulate(value);
+	}
+
+	long count() {
+		return count.sum();
+	}
+
+	long sum() {
+		return sum.sum();
+	}
+
+	double mean() {
+		long n = count.sum();
+		return n == 0 ? 0 : (double) sum.sum() / n;
+	}
+
+	long max() {
+		return max.get();
+	}
+
+	/**
+	 * the value below which the given fraction of the recorded values lie, 0 when there are none
+	 */
+	long percentile(double fraction) {
+		long n = count.sum();
+		if (n == 0) {
+			return 0;
+		}
+		long rank = Math.max(1, (long) Math.ceil(fraction * n));
+		long seen = 0;
+		for (int i = 0; i < 65; i++) {
+			seen += buckets.get(i);
+			if (seen >= rank) {
+				return Math.min(i == 64 ? Long.MAX_VALUE : (1L << i) - 1, max());
+			}
+		}
+		return max();
+	}
+
+	public String toString() {
+		return String.format("count %d, mean %.1f, p50 %d, p99 %d, max %d", count(), mean(), percentile(0.5), percentile(0.99), max());
+	}
+}
@@ -1,11 +1,37 @@
 package socs.network.node;
 
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import socs.network.message.LSA;
+
 public class Link {
 
     RouterDescription router1;
     RouterDescription router2;
 
     int weight;
+    // the area the link belongs to, see Area; both ends must agree on it
+    int area;
+
+    // persistent connection to router2, set once the HELLO exchange has run
+    NeighborChannel channel;
+
+    // flooding state, see Flooder: newest LSA router2 has of each originator, which is also the base
+    // of the deltas sent to it, and the LSAs waiting to be sent to it
+    final ConcurrentHashMap<String, LSA> known = new ConcurrentHashMap<String, LSA>();
+    final ConcurrentHashMap<String, LSA> pending = new ConcurrentHashMap<String, LSA>();
+
+    // when router2 was last heard from, in ms of System.nanoTime; see Router.keepalive
+    volatile long lastHeard = now();
+    // restored from a checkpoint rather than attached, see Checkpoint
+    boolean restored;
+
+    // DATA packets and payload bytes through this port, see Forwarder
+    final LongAdder packetsIn = new LongAdder();
+    final LongAdder bytesIn = new LongAdder();
+    final LongAdder packetsOut = new LongAdder();
+    final LongAdder bytesOut = new LongAdder();
 
     public Link(RouterDescription r1, RouterDescription r2) {
         router1 = r1;
@@ -17,4 +43,20 @@ public class Link {
         router2 = r2;
         this.weight = weight;
     }
+
+    public Link(RouterDescription r1, RouterDescription r2, int weight, int area) {
+        this(r1, r2, weight);
+        this.area = area;
+    }
+
+    /**
+     * a packet from router2 arrived just now
+     */
+    void heard() {
+        lastHeard = now();
+    }
+
+    static long now() {
+        return System.nanoTime() / 1000000;
+    }
 }
@@ -5,21 +5,70 @@ import socs.network.message.LinkDescription;
 
 import java.util.ArrayList;
 import java.util.Collections;
-import java.util.HashMap;
-import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * the LSDB is shared by the handlers of all neighbours, the terminal and the SPF; LSAs in it are
+ * never changed, a newer version of an LSA replaces the old object as a whole
+ * <p/>
+ * every LSA ages from the moment its originator made it; the router flushes LSAs that get too old
+ * and refreshes its own before that, so the database only holds routers that are still around
+ * <p/>
+ * a database holds the LSAs of one area, see Area; routers of other areas only appear as the
+ * summary links of the area border routers
+ */
 public class LinkStateDatabase {
 
+	private static final Logger log = LoggerFactory.getLogger(LinkStateDatabase.class);
+
 	// linkID => LSAInstance
-	HashMap<String, LSA> _store = new HashMap<String, LSA>();
+	final ConcurrentHashMap<String, LSA> _store = new ConcurrentHashMap<String, LSA>();
 
 	private RouterDescription rd;
+	// the last version of this router's LSA made by originate; _store also holds the changes since
+	private volatile LSA originated;
+	// routers of other areas this router advertises as summary links of its LSA, see setSummaries
+	private Map<String, Integer> summaries = Collections.emptyMap();
+	// the highest sequence number another router has of this router's LSA, see outdated
+	private int newestSeen = Integer.MIN_VALUE;
+	// originator => local time in ms at which its LSA in _store had age 0
+	private final ConcurrentHashMap<String, Long> born = new ConcurrentHashMap<String, Long>();
+
+	// serializes changes to the shortest path tree
+	private final Object spfLock = new Object();
+	// shortest path tree, built on the first query and then kept in step with _store
+	private ShortestPathTree spt;
+	// read-only copy of spt handed out to queries, null when spt changed since it was taken
+	private volatile ShortestPathTree published;
+
+	// when set, changes reach the tree in batches paced by this throttle instead of one by one
+	Throttle spfThrottle;
+	// told after every change to the tree, once the new snapshot can be queried
+	Runnable spfListener;
+	// originators whose LSA changed since the last run of spfThrottle
+	private final Set<String> dirty = ConcurrentHashMap.newKeySet();
+	// LSAs removed since the tree was computed from scratch; the tree keeps a node for every router it
+	// has seen, so once those outnumber the live ones it is computed again
+	private int removedSinceBuild = 0;
+	// the router's metrics once it has set them
+	Metrics metrics = new Metrics();
+	// counts the changes, so a checkpoint can tell whether it is out of date
+	private final AtomicLong changes = new AtomicLong();
 
 	public LinkStateDatabase(RouterDescription routerDescription) {
 		rd = routerDescription;
 		LSA l = initLinkStateDatabase();
 		_store.put(l.linkStateID, l);
+		born.put(l.linkStateID, now());
+		originated = l;
 	}
 
 	/**
@@ -27,118 +76,342 @@ public class LinkStateDatabase {
 	 * given IP address
 	 */
 	String getShortestPath(String destinationIP) {
+		return shortestPathTree().pathTo(destinationIP);
+	}
+
+	/**
+	 * all shortest paths from this router to the destination, at most limit of them
+	 */
+	List<String> getEqualCostPaths(String destinationIP, int limit) {
+		return shortestPathTree().pathsTo(destinationIP, limit);
+	}
 
-		String toReturn = "";
-		HashSet<String> openSet = new HashSet<String>(); //nodes that still need to be evaluated
-		HashSet<String> closedSet = new HashSet<String>(); //nodes already evaluated
-		HashMap<String, String> predecessor = new HashMap<String, String>(); //structure keeps track of shortestPath for each node
-		HashMap<String, Integer> distance = new HashMap<String, Integer>(); //structure keeps track of distance to each node
-
-		// add all ip addresses to openSet and weighted graph
-		for (String linkID : _store.keySet()) {
-			// set all distances to infinity as per Dijkstras algorithm
-			distance.put(linkID, Integer.MAX_VALUE);
-
-		}
-		
-		openSet.add(rd.simulatedIPAddress);
-		distance.put(rd.simulatedIPAddress, 0);
-		predecessor.put(rd.simulatedIPAddress, null);
-
-		// dijkstras algorithm
-		while (openSet.size() != 0) {
-			String currentNode = getMinimum(openSet, distance);
-			System.out.print("\nCURRENT " + currentNode);
-			openSet.remove(currentNode);
-
-			System.out.println(" LINKS " + _store.get(currentNode).links.toString());
-			for (LinkDescription neighbour : _store.get(currentNode).links) {
-				if (neighbour.portNum != -1) {
-					int weight = neighbour.tosMetrics;
-					String target = neighbour.linkID;
-					if (!closedSet.contains(target)) {
-						Integer distanceFromSource = distance.get(currentNode);
-						Integer distanceToNeighbour = distance.get(target);
-
-						System.out.println("INFO: distanceFromSource = " + distanceFromSource.intValue());
-                        System.out.println("INFO: distanceToNeighbour = " + distanceToNeighbour.intValue());
-
-						if (distanceFromSource + weight < distanceToNeighbour) {
-							System.out.println("Adding " + neighbour + " ");
-							distance.put(target, distanceFromSource + weight);
-							predecessor.put(target, currentNode);
-						}
-						openSet.add(target);
-					}
+	/**
+	 * the neighbours that are the first hop of a shortest path to the destination
+	 */
+	Set<String> getNextHops(String destinationIP) {
+		return shortestPathTree().nextHops(destinationIP);
+	}
+
+	// queries share one snapshot until the next change, and read it without locking
+	ShortestPathTree shortestPathTree() {
+		ShortestPathTree snapshot = published;
+		if (snapshot != null) {
+			return snapshot;
+		}
+		synchronized (spfLock) {
+			// the tree is only computed from scratch once, later changes to _store are applied to it
+			if (spt == null) {
+				// the full computation sees every change made so far
+				dirty.clear();
+				removedSinceBuild = 0;
+				long start = System.nanoTime();
+				spt = new ShortestPathTree(rd.simulatedIPAddress, _store);
+				metrics.spfRun(System.nanoTime() - start, true);
+			}
+			if (published == null) {
+				published = spt.snapshot();
+			}
+			return published;
+		}
+	}
+
+	/**
+	 * install the LSA if the database has no LSA of its originator yet or only an older one; a flush
+	 * removes the older one instead
+	 *
+	 * @return whether the LSA was installed, or the flush removed ours
+	 */
+	boolean installIfNewer(final LSA lsa) {
+		final boolean[] installed = new boolean[1];
+		_store.compute(lsa.linkStateID, (id, current) -> {
+			if (current == null ? !lsa.isFlush() : lsa.isNewerThan(current)) {
+				installed[0] = true;
+				if (lsa.isFlush()) {
+					born.remove(id);
+					return null;
 				}
+				born.put(id, now() - lsa.lsaAge * 1000L);
+				return lsa;
+			}
+			return current;
+		});
+		if (installed[0]) {
+			changed(lsa.linkStateID);
+		}
+		return installed[0];
+	}
+
+	/**
+	 * remove the LSA originated by the given router, if any
+	 */
+	LSA remove(String linkStateID) {
+		LSA removed = _store.remove(linkStateID);
+		if (removed != null) {
+			born.remove(linkStateID);
+			changed(linkStateID);
+		}
+		return removed;
+	}
+
+	/**
+	 * age of the originator's LSA in seconds, -1 if there is none
+	 */
+	int ageOf(String originator) {
+		Long start = born.get(originator);
+		return start == null ? -1 : (int) Math.min(LSA.MAX_AGE, (now() - start) / 1000);
+	}
+
+	/**
+	 * the other routers' LSAs that are at least maxAge seconds old
+	 */
+	List<String> expired(int maxAge) {
+		List<String> old = new ArrayList<String>();
+		for (String originator : born.keySet()) {
+			if (!originator.equals(rd.simulatedIPAddress) && ageOf(originator) >= maxAge) {
+				old.add(originator);
 			}
-			closedSet.add(currentNode);
+		}
+		return old;
+	}
 
+	/**
+	 * remove the originator's LSA for being too old
+	 *
+	 * @return the copy that flushes it from the other routers, null if there was none
+	 */
+	LSA expire(String originator) {
+		LSA removed = remove(originator);
+		if (removed == null) {
+			return null;
 		}
+		return removed.withAge(LSA.MAX_AGE);
+	}
 
-		// Build and return the string with the shortest path
-		String current = destinationIP;
-		List<String> shortestPath = new ArrayList<String>();
-		while (current != null) {
-			shortestPath.add(current);
-			current = predecessor.get(current);
+	/**
+	 * the LSA of the originator as it may be sent to other routers, with its current age
+	 */
+	LSA aged(String originator) {
+		LSA lsa = published(originator);
+		int age = ageOf(originator);
+		if (lsa == null || age <= 0 || lsa.isFlush()) {
+			return lsa;
 		}
-		Collections.reverse(shortestPath);
-		System.out.println(shortestPath.toString());
+		return lsa.withAge(age);
+	}
 
-		for (int k = 0; k < shortestPath.size(); k++) {
-			// first string has no weight
-			if (k == 0) {
-				toReturn += shortestPath.get(k);
-				// add arrow and weight to string
-			} else {
-				String nextNode = shortestPath.get(k);
-
-				// determine edge weight
-				int edgeWeight;
-				if (k == 1) {
-					edgeWeight = distance.get(nextNode);
-				} else {
-					edgeWeight = distance.get(nextNode) - distance.get(shortestPath.get(k - 1));
+	/**
+	 * put back an LSA saved by a checkpoint, see Checkpoint; this router's own becomes the last
+	 * originated version again, with its summary links, so the next origination goes past the
+	 * version the other routers hold
+	 */
+	void restore(LSA lsa) {
+		if (!installIfNewer(lsa) || !lsa.linkStateID.equals(rd.simulatedIPAddress)) {
+			return;
+		}
+		synchronized (this) {
+			originated = lsa;
+			Map<String, Integer> restored = new TreeMap<String, Integer>();
+			for (int i = 0; i < lsa.size(); i++) {
+				if (lsa.portNum(i) == LinkDescription.SUMMARY) {
+					restored.put(lsa.linkID(i), lsa.tosMetrics(i));
+				}
+			}
+			summaries = restored;
+		}
+	}
+
+	/**
+	 * number of changes to the database so far
+	 */
+	long changes() {
+		return changes.get();
+	}
+
+	/**
+	 * another router has a version of this router's LSA with the given sequence number, left from
+	 * before a restart; the next origination goes past it
+	 */
+	synchronized void outdated(int seq) {
+		newestSeen = Math.max(newestSeen, seq);
+	}
+
+	/**
+	 * add a link to the given router to this router's LSA, replacing any it has to the router, as
+	 * one restored from a checkpoint; the change is local until originate
+	 */
+	LSA addLink(final String linkID, final int portNum, final int tosMetrics) {
+		LSA mine = _store.compute(rd.simulatedIPAddress, (id, current) -> current.withLink(linkID, portNum, tosMetrics));
+		changed(rd.simulatedIPAddress);
+		return mine;
+	}
+
+	/**
+	 * remove the links to the given router from this router's LSA; the change is local until originate
+	 */
+	LSA removeLinks(final String linkID) {
+		LSA mine = _store.compute(rd.simulatedIPAddress, (id, current) -> current.withoutLinks(linkID));
+		changed(rd.simulatedIPAddress);
+		return mine;
+	}
+
+	/**
+	 * replace the summary links of this router's LSA by the given routes, router => cost, to routers
+	 * of other areas; neighbours on links of this router are left out. The change is local until originate
+	 *
+	 * @return whether the LSA changed
+	 */
+	synchronized boolean setSummaries(final Map<String, Integer> routes) {
+		final boolean[] replaced = new boolean[1];
+		_store.compute(rd.simulatedIPAddress, (id, current) -> {
+			TreeMap<String, Integer> next = new TreeMap<String, Integer>();
+			for (Map.Entry<String, Integer> route : routes.entrySet()) {
+				int i = current.indexOf(route.getKey());
+				if (i == -1 || current.portNum(i) == LinkDescription.SUMMARY) {
+					next.put(route.getKey(), route.getValue());
+				}
+			}
+			if (next.equals(summaries)) {
+				return current;
+			}
+
+			summaries = next;
+			replaced[0] = true;
+			LSA.Builder lsa = LSA.builder(id, current.lsaSeqNumber);
+			for (int i = 0; i < current.size(); i++) {
+				if (current.portNum(i) != LinkDescription.SUMMARY) {
+					lsa.add(current.linkID(i), current.portNum(i), current.tosMetrics(i));
 				}
+			}
+			for (Map.Entry<String, Integer> summary : next.entrySet()) {
+				lsa.add(summary.getKey(), LinkDescription.SUMMARY, summary.getValue());
+			}
+			return lsa.build();
+		});
+		if (replaced[0]) {
+			changed(rd.simulatedIPAddress);
+		}
+		return replaced[0];
+	}
+
+	/**
+	 * turn the local changes to this router's LSA into a new version that can be flooded; any number
+	 * of changes since the last origination end up in this one version
+	 * <p/>
+	 * once the sequence numbers run out the LSA is flushed instead, returning the flush, and the
+	 * next origination starts over from the lowest number
+	 */
+	synchronized LSA originate() {
+		final LSA[] sent = new LSA[1];
+		_store.compute(rd.simulatedIPAddress, (id, current) -> {
+			LSA next;
+			int last = Math.max(current.lsaSeqNumber, newestSeen);
+			if (last == Integer.MAX_VALUE) {
+				sent[0] = current.withSeqNumber(Integer.MAX_VALUE).withAge(LSA.MAX_AGE);
+				newestSeen = Integer.MIN_VALUE;
+				next = current.withSeqNumber(Integer.MIN_VALUE);
+			} else {
+				next = current.withSeqNumber(last + 1);
+				sent[0] = next;
+			}
+			originated = sent[0];
+			born.put(id, now());
+			return next;
+		});
+		return sent[0];
+	}
+
+	/**
+	 * the LSA of the originator as it may be sent to other routers; for this router the last
+	 * originated version, as the local changes since carry the same sequence number
+	 */
+	LSA published(String originator) {
+		return originator.equals(rd.simulatedIPAddress) ? originated : _store.get(originator);
+	}
 
-				toReturn += " ->(" + edgeWeight + ") " + nextNode;
+	// the LSA of the originator changed; the tree is repaired right away, or on the next run of the
+	// SPF throttle, which then handles every originator that changed in the meantime
+	private void changed(String originator) {
+		metrics.changed();
+		changes.incrementAndGet();
+		if (!_store.containsKey(originator)) {
+			synchronized (spfLock) {
+				removedSinceBuild++;
+			}
+		}
+		if (spfThrottle == null) {
+			synchronized (spfLock) {
+				long start = System.nanoTime();
+				applyChange(originator);
+				metrics.spfRun(System.nanoTime() - start, !spfPending());
 			}
+			spfDone();
+			return;
 		}
-		return toReturn;
+		dirty.add(originator);
+		spfThrottle.request();
+	}
+
+	/**
+	 * whether changes are waiting for the next run of the SPF throttle
+	 */
+	boolean spfPending() {
+		return !dirty.isEmpty();
 	}
 
-	// get minimum from openSet
-    private String getMinimum(HashSet<String> openSet, HashMap<String, Integer> distance) {
-        String minimum = null;
-        
-        for (String router : openSet) {
+	// run of the SPF throttle
+	void runSpf() {
+		synchronized (spfLock) {
+			long start = System.nanoTime();
+			int changes = 0;
+			for (String originator : dirty) {
+				dirty.remove(originator);
+				applyChange(originator);
+				changes++;
+			}
+			long elapsed = System.nanoTime() - start;
+			metrics.spfRun(elapsed, !spfPending());
+			if (log.isDebugEnabled()) {
+				log.debug("{}: SPF run applied {} changes in {} us", rd.simulatedIPAddress, changes, elapsed / 1000);
+			}
+		}
+		spfDone();
+	}
+
+	private void spfDone() {
+		if (spfListener != null) {
+			spfListener.run();
+		}
+	}
+
+	// bring the tree in line with what _store holds now for the originator; as the tree reads _store
+	// itself, concurrent changes can be applied in any order
+	private void applyChange(String originator) {
+		if (spt != null && removedSinceBuild > _store.size()) {
+			// computed from scratch on the next query, without the routers that are gone
+			spt = null;
+		}
+		if (spt != null) {
+			spt.update(originator, _store.get(originator));
+		}
+		published = null;
+	}
+
+	private static long now() {
+		return System.nanoTime() / 1000000;
+	}
 
-            //if minimum value has not been set yet then set first router to minimum
-            minimum = (minimum == null || distance.get(router) < distance.get(minimum )) ? router : minimum;
-        }
-        return minimum;
-    }
-	
 	// initialize the linkstate database by adding an entry about the router itself
 	private LSA initLinkStateDatabase() {
-		LSA lsa = new LSA();
-		lsa.linkStateID = rd.simulatedIPAddress;
-		lsa.lsaSeqNumber = Integer.MIN_VALUE;
-		LinkDescription ld = new LinkDescription();
-		ld.linkID = rd.simulatedIPAddress;
-		ld.portNum = -1;
-		ld.tosMetrics = 0;
-		lsa.links.add(ld);
-		return lsa;
+		return LSA.builder(rd.simulatedIPAddress, Integer.MIN_VALUE).add(rd.simulatedIPAddress, -1, 0).build();
 	}
 
 	public String toString() {
 		StringBuilder sb = new StringBuilder();
 		for (LSA lsa : _store.values()) {
 			sb.append(lsa.linkStateID).append("(" + lsa.lsaSeqNumber + ")").append(":\t");
-			for (LinkDescription ld : lsa.links) {
-				sb.append(ld.linkID).append(", ").append(ld.portNum).append(", ").append(ld.tosMetrics).append("\t");
+			for (int i = 0; i < lsa.size(); i++) {
+				sb.append(lsa.linkID(i)).append(", ").append(lsa.portNum(i)).append(", ").append(lsa.tosMetrics(i)).append("\t");
 			}
 		}
 		return sb.toString();
@@ -0,0 +1,76 @@
+package socs.network.node;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import socs.network.message.PacketCodec;
+import socs.network.message.SOSPFPacket;
+
+/**
+ * one end of an in-memory neighbour channel; a sent packet goes through the PacketCodec, so the
+ * two routers share no objects and the network can count its bytes, and is handed straight to the
+ * handler of the other end
+ */
+class LoopbackChannel implements NeighborChannel {
+
+	private final LoopbackNetwork network;
+	private final ServerThread handler;
+	private LoopbackChannel peer;
+	private final AtomicBoolean closed = new AtomicBoolean();
+
+	private LoopbackChannel(LoopbackNetwork network, ServerThread handler) {
+		this.network = network;
+		this.handler = handler;
+		handler.channel = this;
+	}
+
+	/**
+	 * a connected pair of channel ends, served by the given handlers
+	 */
+	static void pair(LoopbackNetwork network, ServerThread one, ServerThread other) {
+		LoopbackChannel a = new LoopbackChannel(network, one);
+		LoopbackChannel b = new LoopbackChannel(network, other);
+		a.peer = b;
+		b.peer = a;
+	}
+
+	public void send(SOSPFPacket packet) throws IOException {
+		if (closed.get()) {
+			throw new ClosedChannelException();
+		}
+		handler.router.metrics.sent(packet.sospfType);
+		ByteBuffer bytes = PacketCodec.encode(packet);
+		network.sent(packet, bytes.remaining());
+		peer.handler.deliver(PacketCodec.decode(bytes));
+	}
+
+	// packets are delivered as they are sent, so there is nothing to wait for
+	public void close() {
+		closeNow();
+	}
+
+	public void closeNow() {
+		if (!closed.compareAndSet(false, true)) {
+			return;
+		}
+		handler.closed();
+		peer.closeNow();
+	}
+
+	public boolean isClosed() {
+		return closed.get();
+	}
+
+	// the sender hands packets straight to the handler, there is no reading to stop
+	public void pauseReading() {
+	}
+
+	public void resumeReading() {
+	}
+
+	public String toString() {
+		return "loopback:" + handler.router.rd.simulatedIPAddress;
+	}
+}
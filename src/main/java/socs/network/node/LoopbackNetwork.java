@@ -0,0 +1,90 @@
+package socs.network.node;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+import socs.network.message.SOSPFPacket;
+
+/**
+ * routers running in one JVM, connected by in-memory channels instead of sockets; they share one
+ * executor and one timer, so the thread count does not grow with the number of routers. The
+ * network counts every packet sent over it
+ */
+public class LoopbackNetwork {
+
+	// packet types, see SOSPFPacket.sospfType
+	static final int TYPES = Metrics.PACKET_TYPES.length;
+
+	final ExecutorService executor;
+	final ScheduledExecutorService timer;
+
+	// process port => router
+	private final ConcurrentHashMap<Short, Router> routers = new ConcurrentHashMap<Short, Router>();
+
+	private final AtomicLongArray packets = new AtomicLongArray(TYPES);
+	private final LongAdder bytes = new LongAdder();
+	private final LongAdder lsas = new LongAdder();
+	private final LongAdder deltas = new LongAdder();
+
+	public LoopbackNetwork(int workers) {
+		executor = ExecutionMode.PLATFORM.create(workers);
+		timer = Executors.newSingleThreadScheduledExecutor(task -> {
+			Thread thread = new Thread(task, "loopback-timer");
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+
+	void bind(Router router) {
+		if (routers.putIfAbsent(router.rd.processPortNumber, router) != null) {
+			throw new IllegalStateException("port " + router.rd.processPortNumber + " is already in use");
+		}
+	}
+
+	Router routerAt(short port) {
+		return routers.get(port);
+	}
+
+	void sent(SOSPFPacket packet, int size) {
+		if (packet.sospfType >= 0 && packet.sospfType < TYPES) {
+			packets.incrementAndGet(packet.sospfType);
+		}
+		bytes.add(size);
+		lsas.add(packet.lsaArray.size());
+		deltas.add(packet.deltaArray.size());
+	}
+
+	/**
+	 * packets of the given sospfType sent so far
+	 */
+	public long packets(int type) {
+		return packets.get(type);
+	}
+
+	public long packets() {
+		long total = 0;
+		for (int type = 0; type < TYPES; type++) {
+			total += packets.get(type);
+		}
+		return total;
+	}
+
+	public long bytes() {
+		return bytes.sum();
+	}
+
+	/**
+	 * LSAs, or LSA headers for requests and descriptions, and LSA deltas carried so far
+	 */
+	public long lsas() {
+		return lsas.sum();
+	}
+
+	public long deltas() {
+		return deltas.sum();
+	}
+}
@@ -0,0 +1,33 @@
+package socs.network.node;
+
+import java.io.IOException;
+import java.net.ConnectException;
+
+/**
+ * transport of a router running inside a LoopbackNetwork; channels are opened to the router of the
+ * network that has the process port of the link
+ */
+class LoopbackTransport implements Transport {
+
+	private final Router router;
+	private final LoopbackNetwork network;
+
+	LoopbackTransport(Router router, LoopbackNetwork network) {
+		this.router = router;
+		this.network = network;
+	}
+
+	public void start() {
+		network.bind(router);
+	}
+
+	public Client connect(Link link) throws IOException {
+		Router remote = network.routerAt(link.router2.processPortNumber);
+		if (remote == null) {
+			throw new ConnectException("Connection refused: no router on port " + link.router2.processPortNumber);
+		}
+		Client client = new Client(router, link);
+		LoopbackChannel.pair(network, client, new ServerThread(remote));
+		return client;
+	}
+}
@@ -0,0 +1,242 @@
+package socs.network.node;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * counters and histograms of one router's control plane: LSAs, packets per sospfType, SPF runs and
+ * convergence
+ * <p/>
+ * convergence is timed per router, from the first change to the database after a quiet period to
+ * the end of the SPF run that left nothing pending after its last change; a convergence is only
+ * recorded once no further change has come for the quiet time
+ */
+class Metrics implements MetricsMXBean {
+
+	// names of the packet types, by sospfType
+	static final String[] PACKET_TYPES = { "HELLO", "LSAUPDATE", "QUIT", "LSREQUEST", "DBD", "DATA" };
+
+	// how long the database must stay unchanged before a convergence counts as done, in ms
+	static final long QUIET = 1000;
+
+	final LongAdder lsasReceived = new LongAdder();
+	final LongAdder lsasInstalled = new LongAdder();
+	// received LSAs that were not newer than ours
+	final LongAdder lsasDuplicate = new LongAdder();
+	// LSAs and deltas sent in LSAUPDATEs, counted per neighbour
+	final LongAdder lsasFlooded = new LongAdder();
+	final LongAdder deltasReceived = new LongAdder();
+	final LongAdder deltasFlooded = new LongAdder();
+	// LSAs this router flushed for reaching the maximum age
+	final LongAdder lsasExpired = new LongAdder();
+	// neighbours declared down for missing the dead interval
+	final LongAdder neighboursDown = new LongAdder();
+
+	private final LongAdder[] packetsReceived = adders();
+	private final LongAdder[] packetsSent = adders();
+
+	// time of every SPF run in microseconds
+	final Histogram spf = new Histogram();
+	// time of every convergence in ms
+	final Histogram convergence = new Histogram();
+
+	private final long quiet;
+	// first change of the convergence under way, -1 when there is none
+	private long changeStart = -1;
+	private long lastChange;
+	// end of the last SPF run that left nothing pending
+	private long stableAt;
+	private long lastConvergence = -1;
+
+	Metrics() {
+		this(QUIET);
+	}
+
+	Metrics(long quiet) {
+		this.quiet = quiet;
+	}
+
+	void received(short sospfType) {
+		if (sospfType >= 0 && sospfType < PACKET_TYPES.length) {
+			packetsReceived[sospfType].increment();
+		}
+	}
+
+	void sent(short sospfType) {
+		if (sospfType >= 0 && sospfType < PACKET_TYPES.length) {
+			packetsSent[sospfType].increment();
+		}
+	}
+
+	/**
+	 * the database changed
+	 */
+	synchronized void changed() {
+		long now = now();
+		close(now);
+		if (changeStart < 0) {
+			changeStart = now;
+		}
+		lastChange = now;
+	}
+
+	/**
+	 * an SPF run took the given time; stable when no change is waiting for the next one
+	 */
+	void spfRun(long nanos, boolean stable) {
+		spf.record(nanos / 1000);
+		if (stable) {
+			synchronized (this) {
+				if (changeStart >= 0) {
+					stableAt = now();
+				}
+			}
+		}
+	}
+
+	/**
+	 * ms since the start of the convergence under way, -1 when the database is stable
+	 */
+	synchronized long converging() {
+		long now = now();
+		close(now);
+		return changeStart < 0 ? -1 : now - changeStart;
+	}
+
+	// record the convergence under way if it is stable and quiet
+	private void close(long now) {
+		if (changeStart >= 0 && stableAt >= lastChange && now - stableAt >= quiet) {
+			lastConvergence = stableAt - changeStart;
+			convergence.record(lastConvergence);
+			changeStart = -1;
+		}
+	}
+
+	public String toString() {
+		long converging = converging();
+		StringBuilder sb = new StringBuilder();
+		sb.append("LSAS: received ").append(lsasReceived.sum()).append(" (").append(deltasReceived.sum()).append(" as deltas), installed ")
+				.append(lsasInstalled.sum()).append(", duplicate ").append(lsasDuplicate.sum()).append(", expired ").append(lsasExpired.sum()).append(", flooded ")
+				.append(lsasFlooded.sum()).append(" (").append(deltasFlooded.sum()).append(" as deltas)\n");
+		sb.append("NEIGHBOURS DOWN: ").append(neighboursDown.sum()).append('\n');
+		sb.append("PACKETS IN: ").append(format(packetsReceived)).append('\n');
+		sb.append("PACKETS OUT: ").append(format(packetsSent)).append('\n');
+		sb.append("SPF (us): ").append(spf).append('\n');
+		sb.append("CONVERGENCE (ms): ").append(convergence);
+		if (converging >= 0) {
+			sb.append(", converging for ").append(converging).append(" ms");
+		}
+		sb.append('\n');
+		return sb.toString();
+	}
+
+	public long getLsasReceived() {
+		return lsasReceived.sum();
+	}
+
+	public long getLsasInstalled() {
+		return lsasInstalled.sum();
+	}
+
+	public long getLsasDuplicate() {
+		return lsasDuplicate.sum();
+	}
+
+	public long getLsasFlooded() {
+		return lsasFlooded.sum();
+	}
+
+	public long getDeltasReceived() {
+		return deltasReceived.sum();
+	}
+
+	public long getDeltasFlooded() {
+		return deltasFlooded.sum();
+	}
+
+	public long getLsasExpired() {
+		return lsasExpired.sum();
+	}
+
+	public long getNeighboursDown() {
+		return neighboursDown.sum();
+	}
+
+	public Map<String, Long> getPacketsReceived() {
+		return map(packetsReceived);
+	}
+
+	public Map<String, Long> getPacketsSent() {
+		return map(packetsSent);
+	}
+
+	public long getSpfRuns() {
+		return spf.count();
+	}
+
+	public double getSpfMeanMicros() {
+		return spf.mean();
+	}
+
+	public long getSpfP99Micros() {
+		return spf.percentile(0.99);
+	}
+
+	public long getSpfMaxMicros() {
+		return spf.max();
+	}
+
+	public long getConvergences() {
+		converging();
+		return convergence.count();
+	}
+
+	public synchronized long getLastConvergenceMillis() {
+		converging();
+		return lastConvergence;
+	}
+
+	public double getConvergenceMeanMillis() {
+		converging();
+		return convergence.mean();
+	}
+
+	public long getConvergenceP99Millis() {
+		converging();
+		return convergence.percentile(0.99);
+	}
+
+	public long getConvergenceMaxMillis() {
+		converging();
+		return convergence.max();
+	}
+
+	private static LongAdder[] adders() {
+		LongAdder[] adders = new LongAdder[PACKET_TYPES.length];
+		for (int type = 0; type < adders.length; type++) {
+			adders[type] = new LongAdder();
+		}
+		return adders;
+	}
+
+	private static Map<String, Long> map(LongAdder[] adders) {
+		Map<String, Long> counts = new LinkedHashMap<String, Long>();
+		for (int type = 0; type < adders.length; type++) {
+			counts.put(PACKET_TYPES[type], adders[type].sum());
+		}
+		return counts;
+	}
+
+	private static String format(LongAdder[] adders) {
+		StringBuilder sb = new StringBuilder();
+		for (int type = 0; type < adders.length; type++) {
+			sb.append(type == 0 ? "" : ", ").append(PACKET_TYPES[type]).append(' ').append(adders[type].sum());
+		}
+		return sb.toString();
+	}
+
+	private static long now() {
+		return System.nanoTime() / 1000000;
+	}
+}
@@ -0,0 +1,53 @@
+package socs.network.node;
+
+import java.util.Map;
+
+/**
+ * the control plane metrics of one router as exported over JMX, see Metrics
+ */
+public interface MetricsMXBean {
+
+	long getLsasReceived();
+
+	long getLsasInstalled();
+
+	long getLsasDuplicate();
+
+	long getLsasFlooded();
+
+	long getLsasExpired();
+
+	long getDeltasReceived();
+
+	long getDeltasFlooded();
+
+	long getNeighboursDown();
+
+	/**
+	 * packet type => packets received
+	 */
+	Map<String, Long> getPacketsReceived();
+
+	/**
+	 * packet type => packets sent
+	 */
+	Map<String, Long> getPacketsSent();
+
+	long getSpfRuns();
+
+	double getSpfMeanMicros();
+
+	long getSpfP99Micros();
+
+	long getSpfMaxMicros();
+
+	long getConvergences();
+
+	long getLastConvergenceMillis();
+
+	double getConvergenceMeanMillis();
+
+	long getConvergenceP99Millis();
+
+	long getConvergenceMaxMillis();
+}
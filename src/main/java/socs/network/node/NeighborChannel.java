@@ -0,0 +1,40 @@
+package socs.network.node;
+
+import java.io.IOException;
+
+import socs.network.message.SOSPFPacket;
+
+/**
+ * long lived, bidirectional connection to one neighbour; it is opened by the HELLO exchange and
+ * then carries every later packet between the two routers. Every packet received is handed to the
+ * ServerThread serving the channel, and the channel calls its closed once it is gone
+ */
+interface NeighborChannel {
+
+	/**
+	 * send a packet without blocking; may be called from any thread
+	 *
+	 * @throws java.nio.channels.ClosedChannelException once the channel is closing or closed
+	 */
+	void send(SOSPFPacket packet) throws IOException;
+
+	/**
+	 * close the channel once the packets already sent have reached the other end
+	 */
+	void close();
+
+	/**
+	 * close the channel right away
+	 */
+	void closeNow();
+
+	boolean isClosed();
+
+	/**
+	 * stop taking packets from the other end until resumeReading, as the handler is behind; packets
+	 * already read are still delivered. May be called from any thread
+	 */
+	void pauseReading();
+
+	void resumeReading();
+}
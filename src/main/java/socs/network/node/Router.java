@@ -1,47 +1,404 @@
 package socs.network.node;
-import socs.network.message.LinkDescription;
 import socs.network.message.SOSPFPacket;
+import socs.network.message.WireFormat;
 import socs.network.util.Configuration;
 import socs.network.message.LSA;
+import socs.network.message.PacketCodec;
 
 import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
 import java.io.InputStreamReader;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
+import java.lang.management.ManagementFactory;
 import java.net.InetAddress;
-import java.net.Socket;
 import java.net.UnknownHostException;
-import java.util.LinkedList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import javax.management.ObjectName;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 public class Router {
 
+	private static final Logger log = LoggerFactory.getLogger(Router.class);
+
+	// the database of this router's own area, the one its links are in unless attached to another
 	public LinkStateDatabase lsd;
+	int area;
+	// every area this router has had links in, by id
+	final ConcurrentSkipListMap<Integer, Area> areas = new ConcurrentSkipListMap<Integer, Area>();
 	RouterDescription rd = new RouterDescription();
-	public List<Link> ports = new LinkedList<Link>();
+	// handlers of different neighbours run in parallel, so iterations work on a snapshot
+	public List<Link> ports = new CopyOnWriteArrayList<Link>();
+	// format used on the channels this router opens
+	WireFormat wireFormat;
+	// sockets served by event loops, or a LoopbackNetwork
+	Transport transport;
+	// most neighbours this router takes
+	int maxPorts;
+	// runs the ServerThread and Client tasks
+	ExecutorService executor;
+	Forwarder forwarder;
+	// control plane counters, also exported over JMX
+	final Metrics metrics;
+	// pacing of LSA origination and flooding, SPF runs
+	ScheduledExecutorService timer;
+	// runs the single-source SPFs of detect-all and matrix, created on first use
+	private ForkJoinPool spfPool;
+	private int spfThreads;
+	// HELLO keepalives go out every helloInterval ms, 0 for none; a neighbour silent for deadInterval ms is down
+	private long helloInterval;
+	private long deadInterval;
+	// LSAs of other routers older than maxAge seconds are flushed, our own is refreshed every refresh seconds
+	int maxAge;
+	private int refresh;
+	// how often LSA ages are checked, in ms
+	private static final long AGE_CHECK = 1000;
+	// settings of the areas set up later
+	private final Configuration config;
+	// the state is saved to this file every checkpointInterval ms if it changed, none if null
+	private File checkpoint;
+	private long checkpointInterval;
+	// the state the checkpoint was last saved in, see state()
+	private long checkpointed;
+	// rebuilt after every SPF run, read without locking
+	private volatile ForwardingTable fib = ForwardingTable.EMPTY;
     private static boolean ROUTER_STARTED = false;
+	// detect all stops listing after this many paths
+	private static final int MAX_EQUAL_COST_PATHS = 64;
+	// largest DATA payload the send command generates
+	private static final int MAX_PAYLOAD = 1024 * 1024;
 
 	public Router(Configuration config) {
+		this(config, null);
+	}
+
+	/**
+	 * a router in the given in-memory network, using its executor and timer; with a null network the
+	 * router listens on its process port
+	 */
+	public Router(Configuration config, LoopbackNetwork network) {
 
 		// get info from conf file
+		this.config = config;
 		rd.simulatedIPAddress = config.getString("socs.network.router.ip");
+		area = config.getInt("socs.network.router.area", Area.BACKBONE);
 		rd.processPortNumber = Short.parseShort(config.getString("socs.network.router.port"));
+		wireFormat = WireFormat.valueOf(config.getString("socs.network.router.wire", "binary").toUpperCase());
+		maxPorts = config.getInt("socs.network.router.maxPorts", 4);
+		spfThreads = config.getInt("socs.network.router.spf.threads", Runtime.getRuntime().availableProcessors());
+		helloInterval = config.getInt("socs.network.router.hello.interval", 1000);
+		deadInterval = config.getInt("socs.network.router.hello.dead", (int) (4 * helloInterval));
+		maxAge = Math.min(LSA.MAX_AGE, config.getInt("socs.network.router.lsa.maxAge", LSA.MAX_AGE));
+		refresh = Math.min(maxAge / 2, config.getInt("socs.network.router.lsa.refresh", LSA.MAX_AGE / 2));
+		String checkpointPath = config.getString("socs.network.router.checkpoint.file", null);
+		checkpoint = checkpointPath == null ? null : new File(checkpointPath);
+		checkpointInterval = config.getInt("socs.network.router.checkpoint.interval", 5000);
 		
 		// get local host address
 		InetAddress inetAddress = null;
 		try {
 			inetAddress = InetAddress.getLocalHost();
 		} catch (UnknownHostException e) {
-			e.printStackTrace();
+			log.error("Could not resolve the local host", e);
 		}
 		rd.processIPAddress = inetAddress.getHostAddress();
 		
-		System.out.println("Started router " + rd.processIPAddress + ":" + rd.processPortNumber + " with simulatedIP (" + rd.simulatedIPAddress + ")");
-		
-		Server server = new Server(this, rd.processPortNumber);
-		server.start();
+		log.info("Started router {}:{} with simulatedIP ({})", rd.processIPAddress, rd.processPortNumber, rd.simulatedIPAddress);
 		
-		lsd = new LinkStateDatabase(rd);
+		if (network != null) {
+			executor = network.executor;
+			timer = network.timer;
+		} else {
+			ExecutionMode mode = ExecutionMode.valueOf(config.getString("socs.network.router.execution", "platform").toUpperCase());
+			executor = mode.create(config.getInt("socs.network.router.workers", Runtime.getRuntime().availableProcessors()));
+
+			timer = Executors.newSingleThreadScheduledExecutor(task -> {
+				Thread thread = new Thread(task, "router-timer");
+				thread.setDaemon(true);
+				return thread;
+			});
+		}
+		metrics = new Metrics(config.getInt("socs.network.router.stats.quiet", (int) Metrics.QUIET));
+		if (config.getBoolean("socs.network.router.jmx", true)) {
+			registerMetrics();
+		}
+
+		// clamped to what the codec carries, a ttl of 256 would arrive as 0 and die at the first hop
+		int ttl = Math.max(1, Math.min(PacketCodec.MAX_TTL, config.getInt("socs.network.router.data.ttl", 64)));
+		forwarder = new Forwarder(this, ttl);
+
+		// the database must exist before the first neighbour can reach us
+		lsd = area(area).lsd;
+		boolean warm = restore();
+		rebuildForwardingTable();
+
+		if (network != null) {
+			transport = new LoopbackTransport(this, network);
+		} else {
+			transport = new Server(this, rd.processPortNumber, config.getInt("socs.network.router.eventloops", 2));
+		}
+		transport.start();
+
+		if (helloInterval > 0) {
+			timer.scheduleWithFixedDelay(() -> keepalive(), helloInterval, helloInterval, TimeUnit.MILLISECONDS);
+		}
+		timer.scheduleWithFixedDelay(() -> age(), AGE_CHECK, AGE_CHECK, TimeUnit.MILLISECONDS);
+		if (checkpoint != null) {
+			checkpointed = state();
+			timer.scheduleWithFixedDelay(() -> saveCheckpoint(), checkpointInterval, checkpointInterval, TimeUnit.MILLISECONDS);
+		}
+
+		// the neighbours of the checkpoint were up before, so go straight back to them
+		if (warm && !ports.isEmpty()) {
+			processStart();
+		}
+	}
+
+	// load the checkpoint, if there is one; a router that cannot read it starts from scratch
+	private boolean restore() {
+		if (checkpoint == null || !checkpoint.exists()) {
+			return false;
+		}
+		try {
+			long start = System.nanoTime();
+			int lsas = Checkpoint.restore(this, checkpoint);
+			log.info("{}: restored {} LSAs and {} ports from {} in {} ms", rd.simulatedIPAddress, lsas, ports.size(), checkpoint,
+					(System.nanoTime() - start) / 1000000);
+			return true;
+		} catch (IOException e) {
+			log.warn("{}: could not restore {}, starting from scratch: {}", rd.simulatedIPAddress, checkpoint, e.getMessage());
+			ports.clear();
+			areas.clear();
+			lsd = area(area).lsd;
+			return false;
+		}
+	}
+
+	// save the checkpoint if anything changed since the last save; the timer and quit both call this
+	// and write the same temporary file, so one at a time
+	private synchronized void saveCheckpoint() {
+		try {
+			long state = state();
+			if (state == checkpointed) {
+				return;
+			}
+			Checkpoint.save(this, checkpoint);
+			checkpointed = state;
+			log.debug("{}: saved {}", rd.simulatedIPAddress, checkpoint);
+		} catch (Exception e) {
+			// an exception would cancel the schedule
+			log.warn("{}: could not save {}: {}", rd.simulatedIPAddress, checkpoint, e.getMessage());
+		}
+	}
+
+	// changes to the ports and databases, which the checkpoint has to follow
+	private long state() {
+		long state = ports.hashCode();
+		for (Area area : areas.values()) {
+			state = state * 31 + area.id;
+			state = state * 31 + area.lsd.changes();
+		}
+		return state;
+	}
+
+	/**
+	 * the area with the given id, set up when it is first needed
+	 */
+	Area area(int id) {
+		Area existing = areas.get(id);
+		return existing != null ? existing : areas.computeIfAbsent(id, key -> new Area(this, key, config));
+	}
+
+	// every AGE_CHECK: flush the LSAs that reached maxAge from every area and refresh our own LSAs
+	// well before they get there
+	private void age() {
+		try {
+			for (Area area : areas.values()) {
+				for (String originator : area.lsd.expired(maxAge)) {
+					LSA flush = area.lsd.expire(originator);
+					if (flush != null) {
+						log.info("{}: LSA of {} in {} reached the maximum age, flushing it", rd.simulatedIPAddress, originator, area);
+						metrics.lsasExpired.increment();
+						area.flooder.flood(flush, null);
+					}
+				}
+				area.flooder.flush();
+				if (area.lsd.ageOf(rd.simulatedIPAddress) >= refresh) {
+					area.originate();
+				}
+			}
+		} catch (Exception e) {
+			// an exception would cancel the schedule
+			log.error(rd.simulatedIPAddress + ": aging failed", e);
+		}
+	}
+
+	// every hello interval: a neighbour not heard from for the dead interval is declared down, the
+	// others get a HELLO over their channel, which they only take as a sign of life; so is a
+	// neighbour stuck in INIT, or restored from the checkpoint, that did not reach TWO_WAY within the
+	// dead interval
+	private void keepalive() {
+		try {
+			long now = Link.now();
+			for (Link link : ports) {
+				if (link.router2.status != RouterStatus.TWO_WAY) {
+					boolean waiting = link.router2.status == RouterStatus.INIT || link.restored;
+					if (waiting && now - link.lastHeard > deadInterval) {
+						neighbourDown(link, now - link.lastHeard);
+					}
+					continue;
+				}
+				if (now - link.lastHeard > deadInterval) {
+					neighbourDown(link, now - link.lastHeard);
+					continue;
+				}
+				NeighborChannel channel = link.channel;
+				if (channel != null) {
+					try {
+						channel.send(hello(link));
+					} catch (IOException e) {
+						log.debug("{}: could not send HELLO to {}: {}", rd.simulatedIPAddress, link.router2.simulatedIPAddress, e.getMessage());
+					}
+				}
+			}
+		} catch (Exception e) {
+			// an exception would cancel the schedule
+			log.error(rd.simulatedIPAddress + ": keepalive failed", e);
+		}
+	}
+
+	private SOSPFPacket hello(Link link) {
+		SOSPFPacket hello = new SOSPFPacket();
+		hello.sospfType = 0;
+		hello.srcIP = rd.simulatedIPAddress;
+		hello.dstIP = link.router2.simulatedIPAddress;
+		hello.neighborID = rd.simulatedIPAddress;
+		hello.srcProcessIP = rd.processIPAddress;
+		hello.srcProcessPort = rd.processPortNumber;
+		hello.srcWeight = link.weight;
+		hello.areaID = link.area;
+		return hello;
+	}
+
+	// the neighbour missed the dead interval; drop it as if it had disconnected and let the rest of
+	// the network know with a new LSA
+	private void neighbourDown(Link link, long silent) {
+		if (!ports.remove(link)) {
+			return;
+		}
+		String neighbour = link.router2.simulatedIPAddress;
+		log.warn("{}: no HELLO from {} for {} ms, declaring it down", rd.simulatedIPAddress, neighbour, silent);
+		metrics.neighboursDown.increment();
+
+		NeighborChannel channel = link.channel;
+		if (channel != null) {
+			channel.closeNow();
+		}
+		Area area = area(link.area);
+		area.lsd.remove(neighbour);
+		area.lsd.removeLinks(neighbour);
+		area.originate();
+	}
+
+	// export the metrics as socs.network:type=Router,name=<simulated ip>
+	private void registerMetrics() {
+		try {
+			ObjectName name = new ObjectName("socs.network:type=Router,name=" + ObjectName.quote(rd.simulatedIPAddress));
+			ManagementFactory.getPlatformMBeanServer().registerMBean(metrics, name);
+		} catch (Exception e) {
+			log.warn("Could not register the metrics over JMX: {}", e.getMessage());
+		}
+	}
+
+	// one rebuild at a time, each from the newest trees, so an older table never replaces a newer one
+	synchronized void rebuildForwardingTable() {
+		fib = ForwardingTable.build(rd.simulatedIPAddress, areas.values(), ports);
+		summarise();
+	}
+
+	// an area border router advertises into each of its areas the routers it reaches through the
+	// others, with their costs: into the backbone those inside its other areas, into the other areas
+	// also those the backbone has summaries for, but never routers reached inside the area itself. A
+	// router with links in one area advertises nothing
+	private void summarise() {
+		Set<Integer> linked = new HashSet<Integer>();
+		for (Link link : ports) {
+			linked.add(link.area);
+		}
+
+		// area => router => cost of the route inside it, and the routes to other areas of the backbone
+		HashMap<Integer, Map<String, Integer>> inside = new HashMap<Integer, Map<String, Integer>>();
+		Map<String, Integer> backbone = new HashMap<String, Integer>();
+		if (linked.size() > 1) {
+			for (Area area : areas.values()) {
+				if (!linked.contains(area.id)) {
+					continue;
+				}
+				Map<String, Integer> routes = new HashMap<String, Integer>();
+				ShortestPathTree tree = area.lsd.shortestPathTree();
+				for (String destination : tree.routers()) {
+					int cost = tree.distanceTo(destination);
+					if (destination.equals(rd.simulatedIPAddress) || cost == ShortestPathTree.UNREACHABLE) {
+						continue;
+					}
+					if (!tree.isSummarised(destination)) {
+						routes.put(destination, cost);
+					} else if (area.id == Area.BACKBONE) {
+						backbone.put(destination, cost);
+					}
+				}
+				inside.put(area.id, routes);
+			}
+		}
+
+		for (Area area : areas.values()) {
+			Map<String, Integer> summaries = new HashMap<String, Integer>();
+			if (inside.containsKey(area.id)) {
+				for (Map.Entry<Integer, Map<String, Integer>> other : inside.entrySet()) {
+					if (other.getKey() != area.id) {
+						cheapest(summaries, other.getValue());
+					}
+				}
+				if (area.id != Area.BACKBONE) {
+					cheapest(summaries, backbone);
+				}
+				// the area reaches those itself
+				summaries.keySet().removeAll(inside.get(area.id).keySet());
+			}
+			if (area.lsd.setSummaries(summaries)) {
+				log.info("{}: advertising {} routers of other areas into {}", rd.simulatedIPAddress, summaries.size(), area);
+				area.originate();
+			}
+		}
+	}
+
+	private static void cheapest(Map<String, Integer> routes, Map<String, Integer> more) {
+		for (Map.Entry<String, Integer> route : more.entrySet()) {
+			routes.merge(route.getKey(), route.getValue(), Math::min);
+		}
+	}
+
+	/**
+	 * the forwarding table entry of the destination, null if it cannot be reached
+	 */
+	ForwardingTable.Entry route(String destinationIP) {
+		return fib.lookup(destinationIP);
 	}
 
 	/**
@@ -53,19 +410,147 @@ public class Router {
 	 *            the ip adderss of the destination simulated router
 	 */
 	private void processDetect(String destinationIP) {
-		System.out.println(lsd.getShortestPath(destinationIP));
+		System.out.println(areaTo(destinationIP).lsd.getShortestPath(destinationIP));
+	}
+
+	/**
+	 * output every shortest path to the given destination ip, one per line, in the format of detect,
+	 * followed by the ports the traffic to it is spread over
+	 */
+	private void processDetectEqualCost(String destinationIP) {
+		for (String path : areaTo(destinationIP).lsd.getEqualCostPaths(destinationIP, MAX_EQUAL_COST_PATHS)) {
+			System.out.println(path);
+		}
+		List<Link> hops = nextHops(destinationIP);
+		if (!hops.isEmpty()) {
+			StringBuilder sb = new StringBuilder("INFO: Next hops");
+			for (Link link : hops) {
+				sb.append(" ").append(link.router2.simulatedIPAddress).append(" (port ").append(ports.indexOf(link)).append(")");
+			}
+			System.out.println(sb);
+		}
+	}
+
+	// the area of the route to the destination, this router's own area when there is none
+	private Area areaTo(String destinationIP) {
+		ForwardingTable.Entry entry = route(destinationIP);
+		return entry == null || entry.link == null ? area(area) : area(entry.area);
+	}
+
+	/**
+	 * output the shortest path from each of the given routers to every other router, one per line in
+	 * the format of detect; "*" stands for every router. The sources are computed in parallel on one
+	 * snapshot of the database of this router's own area, and each source's paths are printed as
+	 * soon as they are ready
+	 */
+	private void processDetectAllDestinations(List<String> sourceIPs) {
+		long start = System.nanoTime();
+		final AllPairs snapshot = new AllPairs(lsd._store);
+		List<Integer> found = new ArrayList<Integer>();
+		for (String sourceIP : sourceIPs) {
+			if (sourceIP.equals("*")) {
+				for (int i = 0; i < snapshot.size(); i++) {
+					found.add(i);
+				}
+				continue;
+			}
+			int source = snapshot.indexOf(sourceIP);
+			if (source == -1) {
+				System.out.println("ERROR: Unknown router " + sourceIP + ".");
+			} else {
+				found.add(source);
+			}
+		}
+		if (found.isEmpty()) {
+			return;
+		}
+		int[] sources = new int[found.size()];
+		for (int i = 0; i < sources.length; i++) {
+			sources[i] = found.get(i);
+		}
+
+		ForkJoinPool pool = spfPool();
+		try {
+			snapshot.runEach(sources, pool, row -> {
+				StringBuilder paths = new StringBuilder();
+				for (int destination = 0; destination < snapshot.size(); destination++) {
+					if (destination != row.source) {
+						paths.append(snapshot.pathTo(row, destination)).append('\n');
+					}
+				}
+				System.out.print(paths);
+			});
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return;
+		}
+		if (sources.length > 1) {
+			System.out.println("INFO: " + sources.length + " sources in " + (System.nanoTime() - start) / 1000000 + " ms on "
+					+ pool.getParallelism() + " threads");
+		}
+	}
+
+	/**
+	 * output the distance between every pair of routers, one row per source in the order of the
+	 * simulated ips, "-" where there is no path; the rows are computed in parallel on a snapshot of
+	 * the database of this router's own area and printed as they are ready
+	 */
+	private void printMatrix() {
+		long start = System.nanoTime();
+		final AllPairs snapshot = new AllPairs(lsd._store);
+		StringBuilder header = new StringBuilder();
+		int[] sources = new int[snapshot.size()];
+		for (int i = 0; i < sources.length; i++) {
+			sources[i] = i;
+			header.append('\t').append(snapshot.name(i));
+		}
+		System.out.println(header);
+
+		ForkJoinPool pool = spfPool();
+		snapshot.runAll(sources, pool, row -> {
+			StringBuilder line = new StringBuilder(snapshot.name(row.source));
+			for (int distance : row.distance) {
+				line.append('\t').append(distance == ShortestPathTree.UNREACHABLE ? "-" : String.valueOf(distance));
+			}
+			System.out.println(line);
+		});
+		System.out.println("INFO: " + sources.length + " sources in " + (System.nanoTime() - start) / 1000000 + " ms on "
+				+ pool.getParallelism() + " threads");
+	}
+
+	private synchronized ForkJoinPool spfPool() {
+		if (spfPool == null) {
+			spfPool = new ForkJoinPool(Math.max(1, spfThreads));
+		}
+		return spfPool;
+	}
+
+	/**
+	 * the links to the neighbours that are the first hop of a shortest path to the given destination;
+	 * traffic to it can be spread over all of them
+	 */
+	List<Link> nextHops(String destinationIP) {
+		Area area = areaTo(destinationIP);
+		Set<String> hops = area.lsd.getNextHops(destinationIP);
+		List<Link> links = new ArrayList<Link>();
+		for (Link link : ports) {
+			if (link.area == area.id && hops.contains(link.router2.simulatedIPAddress)) {
+				links.add(link);
+			}
+		}
+		return links;
 	}
 
 	/**
 	 * attach the link to the remote router, which is identified by the given
 	 * simulated ip; to establish the connection via socket, you need to
 	 * identify the process IP and process Port; additionally, weight is the
-	 * cost to transmitting data through the link
+	 * cost to transmitting data through the link, and area the area the link belongs to
 	 * <p/>
 	 * NOTE: this command should not trigger link database synchronization
 	 */
     // Should you be able to call attach if the router has already started?
-    private int processAttach(String processIP, short processPort, String simulatedIP, short weight) {
+    int processAttach(String processIP, short processPort, String simulatedIP, short weight, int area) {
 
 		// cannot attach to self
 		if (rd.simulatedIPAddress.equals(simulatedIP)) {
@@ -82,14 +567,15 @@ public class Router {
 		}
 
 		// check to see if there is space in ports list
-		if (ports.size() < 4) {
+		if (ports.size() < maxPorts) {
 			RouterDescription remoteRouter = new RouterDescription();
 			remoteRouter.processIPAddress = processIP;
 			remoteRouter.simulatedIPAddress = simulatedIP;
 			remoteRouter.processPortNumber = processPort;
 
-			ports.add(new Link(rd, remoteRouter, weight));
-			System.out.println("INFO: Attached (" + rd.simulatedIPAddress + ") to (" + simulatedIP +")");
+			area(area);
+			ports.add(new Link(rd, remoteRouter, weight, area));
+			System.out.println("INFO: Attached (" + rd.simulatedIPAddress + ") to (" + simulatedIP + ")" + (area == this.area ? "" : " in " + area(area)));
 		}
 		// ports list is full
 		else {
@@ -101,14 +587,13 @@ public class Router {
 	/**
 	 * broadcast Hello to neighbors
 	 */
-	private void processStart() {
+	void processStart() {
 
 //		if (ROUTER_STARTED) {
 //		    System.out.println("INFO: Router has already been started.");
 //		    return;
 //        }
 
-	    Socket clientSocket = null;
         ROUTER_STARTED = true;
 
         if (ports.size() == 0) {
@@ -117,18 +602,24 @@ public class Router {
 
 		// send HELLO message to all attached routers
 		for (Link current : ports) {
-			String hostName = current.router2.processIPAddress;
-			short port = current.router2.processPortNumber;
+			// neighbours that already have a channel have run the HELLO exchange
+			if (current.channel != null) {
+				continue;
+			}
 
+			// connecting blocks until the neighbour answers, so do it on the executor
+			final Link link = current;
 			try {
-				clientSocket = new Socket(hostName, port);
-			} catch (Exception e) {
-				e.printStackTrace();
+				executor.execute(() -> {
+					try {
+						transport.connect(link).start();
+					} catch (Exception e) {
+						log.error(rd.simulatedIPAddress + ": could not connect to " + link.router2.simulatedIPAddress, e);
+					}
+				});
+			} catch (RejectedExecutionException e) {
+				System.out.println("ERROR: Workers are busy, could not connect to " + link.router2.simulatedIPAddress + ", try start again.");
 			}
-
-			// start client thread
-			Thread myClientThread = new Thread(new Client(clientSocket, this, current));
-			myClientThread.start();
 		}
 	}
 
@@ -143,9 +634,9 @@ public class Router {
      * Start() is similar to attach command, but it directly triggers the database synchronization.
      * This command can only be run after start ).
      **/
-    private void processConnect(String processIP, short processPort, String simulatedIP, short weight) {
+    private void processConnect(String processIP, short processPort, String simulatedIP, short weight, int area) {
         // Attempt attaching to the remote router
-        if (processAttach(processIP, processPort, simulatedIP, weight) == 1)    {
+        if (processAttach(processIP, processPort, simulatedIP, weight, area) == 1)    {
             System.out.println("INFO: Connection failed.");
             return;         // attach failed
         }
@@ -190,98 +681,55 @@ public class Router {
      * NOTE: This DOES trigger link state database synchronization by sending LSAUPDATE (Link State Advertisement Update)
      * message to all neighbors in the topology.
      **/
-    private void processDisconnect(short portNumber) {
-        if (portNumber > ports.size()) {
+    void processDisconnect(short portNumber) {
+        // a snapshot, as handlers and the keepalive timer remove ports while this runs
+        Link[] current = ports.toArray(new Link[0]);
+        if (portNumber < 0 || portNumber >= current.length) {
             System.out.println("ERROR: Invalid port number.");
             return;
         }
 
-        // Remove the disconnected device's link from this router's ports
-        Link deadLink = ports.remove(portNumber);
-        System.out.println("INFO: IP of Link removed from ports[]: " + deadLink.router2.simulatedIPAddress);
-
-        // Remove the disconnected device's entry from this router's LSD
-        LSA deadRouterLSA = lsd._store.remove(deadLink.router2.simulatedIPAddress);
-        System.out.println("INFO: Identity of removed LSA: " + deadRouterLSA.linkStateID);
-
-        // Retrieve the LSA of this router
-        LSA myLSA = this.lsd._store.get(rd.simulatedIPAddress);
-
-        // Remove any links to the disconnect device from this router's LSA
-//        System.out.println("INFO: There are " + myLSA.links.size() + " links in this LSA.");
+        // Remove the disconnected device's link from this router's ports, by the link as its
+        // position may have shifted since the snapshot
+        Link deadLink = current[portNumber];
+        if (!ports.remove(deadLink)) {
+            System.out.println("ERROR: Port " + portNumber + " has already been disconnected.");
+            return;
+        }
+        log.info("{}: removed {} from ports", rd.simulatedIPAddress, deadLink.router2.simulatedIPAddress);
 
-        for (int i = 0; i < myLSA.links.size(); i++) {
-            System.out.println("INFO: Current link: " + myLSA.links.get(i).linkID);
-            if (myLSA.links.get(i).linkID.equals(deadLink.router2.simulatedIPAddress)) {
-                myLSA.links.remove(i);
-                myLSA.lsaSeqNumber++;
-                i--;
-                System.out.println("INFO: Identity of LD removed from my LSA: " + deadLink.router2.simulatedIPAddress);
-            }
+        // Remove the disconnected device's entry from the LSD of the link's area
+        LinkStateDatabase lsd = area(deadLink.area).lsd;
+        LSA deadRouterLSA = lsd.remove(deadLink.router2.simulatedIPAddress);
+        if (deadRouterLSA != null) {
+            log.info("{}: removed the LSA of {}", rd.simulatedIPAddress, deadRouterLSA.linkStateID);
         }
 
-        // Store this router's LSA inside it's LSD
-        lsd._store.put(rd.simulatedIPAddress, myLSA);
+        // Remove any links to the disconnect device from this router's LSA inside the LSD
+        lsd.removeLinks(deadLink.router2.simulatedIPAddress);
+        log.info("{}: removed {} from my LSA", rd.simulatedIPAddress, deadLink.router2.simulatedIPAddress);
 
-        // Open up a channel to the neighbor
+        // Tell the neighbor over its channel
         try {
-            Socket clientSocket = new Socket(deadLink.router2.processIPAddress, deadLink.router2.processPortNumber);
-            ObjectOutputStream output = new ObjectOutputStream(clientSocket.getOutputStream());
-
-            // Create a deletion packet
-            SOSPFPacket disconnectRequest = new SOSPFPacket();
-            disconnectRequest.dstIP = deadLink.router2.simulatedIPAddress;
-            disconnectRequest.srcIP = disconnectRequest.srcProcessIP = this.rd.simulatedIPAddress;
-            disconnectRequest.srcProcessPort = this.rd.processPortNumber;
-            disconnectRequest.sospfType = 2;
-
-            // Send the deletion packet
-            output.writeObject(disconnectRequest);
-
-            System.out.println("INFO: Disconnect packet sent. Awaiting confirmation from remote router.");
-            try {
-                ObjectInputStream input = new ObjectInputStream(clientSocket.getInputStream());
-
-                SOSPFPacket inbound = (SOSPFPacket) input.readObject();
-                input.close();
-                output.close();
-                if (inbound.sospfType == 2)
-                {
-                    System.out.println("INFO: Disconnect from the remote router was successful.");
-                    clientSocket.close();
-                }
-                else
-                    System.out.println("ERROR: Disconnect from the remote router failed.");
-            } catch (Exception e) {
-                e.printStackTrace();
+            if (deadLink.channel != null) {
+                // Create a deletion packet
+                SOSPFPacket disconnectRequest = new SOSPFPacket();
+                disconnectRequest.dstIP = deadLink.router2.simulatedIPAddress;
+                disconnectRequest.srcIP = disconnectRequest.srcProcessIP = this.rd.simulatedIPAddress;
+                disconnectRequest.srcProcessPort = this.rd.processPortNumber;
+                disconnectRequest.sospfType = 2;
+
+                // Send the deletion packet, the confirmation arrives on the channel's own thread
+                deadLink.channel.send(disconnectRequest);
+
+                log.info("{}: disconnect packet sent to {}, awaiting confirmation", rd.simulatedIPAddress, deadLink.router2.simulatedIPAddress);
             }
-
         } catch (Exception e) {
-            e.printStackTrace();
+            log.warn("{}: could not send the disconnect packet to {}: {}", rd.simulatedIPAddress, deadLink.router2.simulatedIPAddress, e.getMessage());
         }
 
-        try {
-            for (Link link : this.ports) {
-
-                SOSPFPacket LSP = new SOSPFPacket();
-                LSP.srcProcessIP = rd.processIPAddress;
-                LSP.srcProcessPort = rd.processPortNumber;
-                LSP.srcIP = rd.simulatedIPAddress;
-                LSP.dstIP = link.router2.simulatedIPAddress;
-                LSP.sospfType = 1;
-                LSP.neighborID = rd.simulatedIPAddress;
-                LSP.lsaArray.add(myLSA);        // send out the updated LSP
-
-                // Send the packet to each neighbour
-                Socket clientSocket = new Socket(link.router2.processIPAddress, link.router2.processPortNumber);
-                ObjectOutputStream outputStreamLSP = new ObjectOutputStream(clientSocket.getOutputStream());
-                outputStreamLSP.writeObject(LSP);
-                clientSocket.close();
-                outputStreamLSP.close();
-            }
-        } catch (Exception e) {
-            e.printStackTrace();
-        }
+        // Broadcast the new version of this router's LSA to the remaining neighbors
+        area(deadLink.area).originate();
 
         System.out.println("INFO: Port " + portNumber + " (" + deadLink.router2.simulatedIPAddress + ") has been disconnected from remote router.");
 
@@ -293,6 +741,9 @@ public class Router {
      * NOTE: This DOES trigger link database synchronization
      */
     private void processQuit() {
+        if (checkpoint != null) {
+            saveCheckpoint();
+        }
         System.exit(0);
     }
 
@@ -318,21 +769,58 @@ public class Router {
 
 	// Helper function taken from https://github.com/Shabirmean/simulatedNetwork
 	private void printLSD() {
-        for (String lsaEntry : this.lsd._store.keySet()) {
-            LSA lsa = this.lsd._store.get(lsaEntry);
+        for (Area area : areas.values()) {
+            // the areas are only told apart once there are several
+            if (areas.size() > 1) {
+                System.out.println("==================================================");
+                System.out.println("       " + area.toString().toUpperCase());
+            }
+            printLSD(area.lsd);
+        }
+    }
+
+	private void printLSD(LinkStateDatabase lsd) {
+        for (Map.Entry<String, LSA> entry : lsd._store.entrySet()) {
+            String lsaEntry = entry.getKey();
+            LSA lsa = entry.getValue();
             System.out.println("--------------------------------------------------");
             System.out.println("       RouterIP      :   " + lsaEntry);
             System.out.println("       OriginatorIP  :   " + lsa.linkStateID);
             System.out.println("..................................................");
 
-            for (LinkDescription linkDes : lsa.links) {
-                System.out.println("LinkID [" + linkDes.linkID + "] - " +
-                        "Port [" + linkDes.portNum + "] - WEIGHT [" + linkDes.tosMetrics + "]");
+            for (int i = 0; i < lsa.size(); i++) {
+                System.out.println("LinkID [" + lsa.linkID(i) + "] - " +
+                        "Port [" + lsa.portNum(i) + "] - WEIGHT [" + lsa.tosMetrics(i) + "]");
             }
             System.out.println("--------------------------------------------------");
         }
     }
 
+	/**
+	 * send count DATA packets with a payload of size bytes to the given destination ip and report
+	 * the throughput and round trip times
+	 */
+	private void processSend(String destinationIP, int count, int size) throws InterruptedException {
+		if (count <= 0 || size < 0 || size > MAX_PAYLOAD) {
+			System.out.println("ERROR: Packet count must be positive and size between 0 and " + MAX_PAYLOAD + ".");
+			return;
+		}
+		forwarder.send(destinationIP, count, size);
+	}
+
+	/**
+	 * output the DATA traffic through every port
+	 */
+	private void printTraffic() {
+		int i = 0;
+		for (Link link : ports) {
+			System.out.println("PORT " + i + " (" + link.router2.simulatedIPAddress + "): in " + link.packetsIn.sum() + " packets / "
+					+ link.bytesIn.sum() + " bytes, out " + link.packetsOut.sum() + " packets / " + link.bytesOut.sum() + " bytes");
+			i++;
+		}
+		System.out.println("DROPPED: " + forwarder.dropped.sum() + " packets");
+	}
+
     // Helper function taken from https://github.com/Shabirmean/simulatedNetwork
     private void printPortInfo() {
         int i = 0;
@@ -359,6 +847,7 @@ public class Router {
                 System.out.println("    SIMULATED IP: " + simulatedIPAddress);
                 System.out.println("    STATUS: " + statusString);
                 System.out.println("    LINK WEIGHT: " + linkWeight);
+                System.out.println("    AREA: " + linkOnPort.area);
                 System.out.println("-------------------------------------------");
             } else {
                 System.out.println("PORT " + i + " is free.");
@@ -367,6 +856,11 @@ public class Router {
         }
     }
 
+	// the optional area after the weight of attach and connect, this router's own area by default
+	private int areaOf(String[] cmdLine) {
+		return cmdLine.length > 5 ? Integer.parseInt(cmdLine[5]) : area;
+	}
+
 	public void terminal() {
 		try {
 			InputStreamReader isReader = new InputStreamReader(System.in);
@@ -374,10 +868,23 @@ public class Router {
 			System.out.print(">> ");
 			String command = br.readLine();
 			while (true) {
-				if (command.startsWith("detect ")) {
+				if (command.trim().startsWith("detect-all")) {
+					// detect-all [source ...], this router by default
+					String[] cmdLine = command.trim().split("\\s+");
+					List<String> sources = new ArrayList<String>(Arrays.asList(cmdLine).subList(1, cmdLine.length));
+					if (sources.isEmpty()) {
+						sources.add(rd.simulatedIPAddress);
+					}
+					processDetectAllDestinations(sources);
+				} else if (command.trim().equals("matrix")) {
+					// print the all-pairs distances
+					printMatrix();
+				} else if (command.startsWith("detect ")) {
 				    String[] cmdLine = command.split(" ");
 				    if (cmdLine.length < 2) {
 				        System.out.println("ERROR: Please enter a router to detect.");
+                    } else if (cmdLine.length > 2 && cmdLine[2].equals("all")) {
+                        processDetectEqualCost(cmdLine[1]);
                     } else {
                         processDetect(cmdLine[1]);
                     }
@@ -391,18 +898,34 @@ public class Router {
                     break;      // Unreachable code, but it's just here to keep the compiler happy
 				} else if (command.startsWith("attach ")) {
 					String[] cmdLine = command.split(" ");
-					processAttach(cmdLine[1], Short.parseShort(cmdLine[2]), cmdLine[3], Short.parseShort(cmdLine[4]));
+					processAttach(cmdLine[1], Short.parseShort(cmdLine[2]), cmdLine[3], Short.parseShort(cmdLine[4]), areaOf(cmdLine));
 				} else if (command.trim().equals("start")) {
 					processStart();
 				} else if (command.startsWith("connect ")) {
 					String[] cmdLine = command.split(" ");
-					processConnect(cmdLine[1], Short.parseShort(cmdLine[2]), cmdLine[3], Short.parseShort(cmdLine[4]));
+					processConnect(cmdLine[1], Short.parseShort(cmdLine[2]), cmdLine[3], Short.parseShort(cmdLine[4]), areaOf(cmdLine));
 				} else if (command.trim().equals("neighbors")) {
                     // output neighbors
                     processNeighbors();
                 } else if (command.trim().equals("lsd")) {
                     // print the LSD
                     printLSD();
+                } else if (command.startsWith("send ")) {
+                    String[] cmdLine = command.split(" ");
+                    if (cmdLine.length < 4) {
+                        System.out.println("ERROR: Usage: send <dstIP> <count> <size>");
+                    } else {
+                        processSend(cmdLine[1], Integer.parseInt(cmdLine[2]), Integer.parseInt(cmdLine[3]));
+                    }
+                } else if (command.trim().equals("traffic")) {
+                    // print the data traffic through every port
+                    printTraffic();
+                } else if (command.trim().equals("stats")) {
+                    // print the control plane metrics
+                    System.out.print(metrics);
+                } else if (command.trim().equals("routes")) {
+                    // print the forwarding table
+                    System.out.print(fib);
                 } else if (command.trim().equals("ports")) {
                     // print the status of all ports
 				    printPortInfo();
@@ -416,7 +939,7 @@ public class Router {
 			isReader.close();
 			br.close();
 		} catch (Exception e) {
-			e.printStackTrace();
+			log.error("Terminal failed", e);
 		}
 	}
 
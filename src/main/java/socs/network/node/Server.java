@@ -1,60 +1,84 @@
 package socs.network.node;
 
 import java.io.IOException;
-import java.net.ServerSocket;
-import java.net.Socket;
+import java.net.InetSocketAddress;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
 
-public class Server extends Thread {
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * non-blocking TCP transport of the router: a fixed set of event loops serves the listening socket
+ * and every neighbour channel, so the thread count does not grow with the number of neighbours
+ */
+public class Server implements Transport {
+
+	private static final Logger log = LoggerFactory.getLogger(Server.class);
 
 	private Router myRouter;
 	private short myPort;
-	private boolean serverOn = true;
+	private ServerSocketChannel serverChannel;
+	private EventLoop[] loops;
+	private int nextLoop = 0;
 
-	public Server(Router router, short port) {
+	public Server(Router router, short port, int eventLoops) {
 		myRouter = router;
 		myPort = port;
+		loops = new EventLoop[eventLoops];
 	}
 
-	public void run() {
-
-		ServerSocket serverSocket = null;
+	public void start() {
 
 		// create server socket
 		try {
-			serverSocket = new ServerSocket(myPort);
+			for (int i = 0; i < loops.length; i++) {
+				loops[i] = new EventLoop("event-loop-" + i);
+				loops[i].start();
+			}
+			serverChannel = ServerSocketChannel.open();
+			serverChannel.bind(new InetSocketAddress(myPort));
+			serverChannel.configureBlocking(false);
 		} catch (IOException ioe) {
-			System.out.println("Could not create server socket on port " + myPort + ". Quitting.");
+			log.error("Could not create server socket on port " + myPort + ", quitting", ioe);
 			System.exit(-1);
 		}
 
-		while (serverOn) {
-
+		// the first loop also accepts
+		loops[0].execute(() -> {
 			try {
-				
-				// accept will block until a client connects to the server. 
-				Socket clientSocket = serverSocket.accept();	
-
-				// when an incoming request comes through, create a client thread to handle the request
-				Thread clientServiceThread = new Thread(new ServerThread(clientSocket, myRouter));
-				clientServiceThread.start();
-
+				loops[0].register(serverChannel, SelectionKey.OP_ACCEPT, this);
 			} catch (IOException ioe) {
-				System.out.println("Exception encountered on accept. Stack Trace :");
-				ioe.printStackTrace();
+				log.error("Could not listen on port " + myPort + ", quitting", ioe);
+				System.exit(-1);
 			}
+		});
+	}
 
+	// on the accepting event loop, when neighbours are connecting
+	void accept() {
+		try {
+			SocketChannel clientChannel;
+			while ((clientChannel = serverChannel.accept()) != null) {
+				// the new neighbour is served by a ServerThread until the HELLO exchange tells who it is
+				new SocketNeighborChannel(clientChannel, nextLoop(), myRouter.wireFormat, new ServerThread(myRouter));
+			}
+		} catch (IOException ioe) {
+			log.error("Could not accept on port " + myPort, ioe);
 		}
-		
-		try 
-        { 
-            serverSocket.close(); 
-            System.out.println("Server Stopped"); 
-        } 
-        catch(Exception ioe) 
-        { 
-            System.out.println("Problem stopping server socket"); 
-            System.exit(-1); 
-        } 
+	}
+
+	public Client connect(Link link) throws IOException {
+		SocketChannel channel = SocketChannel.open(new InetSocketAddress(link.router2.processIPAddress, link.router2.processPortNumber));
+		Client client = new Client(myRouter, link);
+		new SocketNeighborChannel(channel, nextLoop(), myRouter.wireFormat, client);
+		return client;
+	}
 
+	private synchronized EventLoop nextLoop() {
+		EventLoop loop = loops[nextLoop];
+		nextLoop = (nextLoop + 1) % loops.length;
+		return loop;
 	}
 }
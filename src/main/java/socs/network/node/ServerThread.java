@@ -1,254 +1,361 @@
 package socs.network.node;
 
 import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
-import java.net.Socket;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
-import org.omg.PortableInterceptor.SYSTEM_EXCEPTION;
 import socs.network.message.LSA;
+import socs.network.message.LSADelta;
 import socs.network.message.LinkDescription;
 import socs.network.message.SOSPFPacket;
 
+/**
+ * protocol handler of one neighbour channel; the event loop delivers every packet read from the
+ * channel and run handles them in order, as a task on the router's executor. At most one run is
+ * scheduled at a time, so packets of one neighbour are never handled concurrently
+ */
 public class ServerThread implements Runnable {
 
-	protected Socket socket;
+	private static final Logger log = LoggerFactory.getLogger(ServerThread.class);
+
 	protected Router router;
+	protected NeighborChannel channel;
+	// the neighbour on the other end, known once the HELLO exchange is done
+	protected Link link;
+
+	// packets read from the channel and not handled yet
+	private final ConcurrentLinkedQueue<SOSPFPacket> inbox = new ConcurrentLinkedQueue<SOSPFPacket>();
+	private final AtomicBoolean scheduled = new AtomicBoolean();
+	// the executor turned the run down: reading is paused and a retry is due after RETRY ms
+	private final AtomicBoolean backlogged = new AtomicBoolean();
+	private static final long RETRY = 5;
+
+	// progress of the HELLO exchange on this channel
+	protected boolean helloReplied = false;
+	protected boolean twoWay = false;
 
 	// constructor
-	public ServerThread(Socket socket, Router router) {
-		this.socket = socket;
+	public ServerThread(Router router) {
 		this.router = router;
 	}
 
-	// create and send new LSP ----------------------------------------------------------------------------
-	protected void sendLSP(LSA lsa) throws IOException {
-
-		// For each link create a LSP and send it
-		for (Link link : router.ports) {
-
-			SOSPFPacket LSP = new SOSPFPacket();
-			LSP.srcProcessIP = router.rd.processIPAddress;
-			LSP.srcProcessPort = router.rd.processPortNumber;
-			LSP.srcIP = router.rd.simulatedIPAddress;
-			LSP.dstIP = link.router2.simulatedIPAddress;
-			LSP.sospfType = 1;
-			LSP.neighborID = router.rd.simulatedIPAddress;
-			LSP.lsaArray.add(lsa);
-
-			// Send the packet to each neighbour
-			Socket clientSocket = new Socket(link.router2.processIPAddress, link.router2.processPortNumber);
-			ObjectOutputStream outputStreamLSP = new ObjectOutputStream(clientSocket.getOutputStream());
-			outputStreamLSP.writeObject(LSP);
-			clientSocket.close();
-			outputStreamLSP.close();
+	// update existing LSA ----------------------------------------------------------------------------
+	protected LSA updateLSA(Link link, int ACTION_FLAG) {
 
+		// ACTION_FLAG 0 means a new connection occurred, anything else a disconnect
+		if (ACTION_FLAG == 0) {
+			// Add new link to a new version of this router's LSA in the link's area
+			LSA tempLSA = router.area(link.area).lsd.addLink(link.router2.simulatedIPAddress, link.router2.processPortNumber, link.weight);
+			log.info("{}: added {} to my LSA", router.rd.simulatedIPAddress, link.router2.simulatedIPAddress);
+			return tempLSA;
 		}
 
-	}
+		// Remove the LSA associated with the disconnected device
+		LinkStateDatabase lsd = router.area(link.area).lsd;
+		lsd.remove(link.router2.simulatedIPAddress);
 
-	// update existing LSA ----------------------------------------------------------------------------
-	protected LSA updateLSA(Link link, int ACTION_FLAG) {
+		// Remove any links to the disconnected device from a new version of this router's LSA
+		LSA tempLSA = lsd.removeLinks(link.router2.simulatedIPAddress);
+		log.info("{}: removed {} from my LSA", router.rd.simulatedIPAddress, link.router2.simulatedIPAddress);
+		return tempLSA;
+	}
 
-		// create a link state advertisement (LSA) with all Link Description (LD) for each occupied port
-		LSA tempLSA = null;
+	// called by the event loop for every packet read from the channel
+	void deliver(SOSPFPacket packet) {
+		router.metrics.received(packet.sospfType);
+		inbox.add(packet);
+		schedule();
+	}
 
-		// retrieve this router's own LSA
-		if (router.lsd._store.get(router.rd.simulatedIPAddress) != null) {
-			tempLSA = router.lsd._store.get(router.rd.simulatedIPAddress);
-			tempLSA.lsaSeqNumber++;
+	// a run on the executor, unless one is scheduled already. When the executor is full the channel
+	// stops reading until a retry gets through, which keeps the handler off the event loop and lets
+	// the loop go on serving the other channels
+	private void schedule() {
+		if (!scheduled.compareAndSet(false, true)) {
+			return;
+		}
+		if (submit()) {
+			if (backlogged.compareAndSet(true, false)) {
+				resumeReading();
+			}
+		} else if (backlogged.compareAndSet(false, true)) {
+			NeighborChannel current = channel;
+			if (current != null) {
+				current.pauseReading();
+			}
+			log.debug("{}: workers are busy, pausing reads from {}", router.rd.simulatedIPAddress, current);
+			retryLater();
 		}
+	}
 
-		// If link is null, then a disconnect occurred
-        // If link is non-null, then a new connection occurred
-		if (ACTION_FLAG == 0) {
-            // Add new link to the LSA
-            tempLSA.addLinkDescription(link.router2.simulatedIPAddress, link.router2.processPortNumber, link.weight);
-            System.out.println("INFO: Added " + link.router2.simulatedIPAddress + " to my LSA.");
+	// on the timer, while reading is paused
+	private void retry() {
+		if (!backlogged.get() || !scheduled.compareAndSet(false, true)) {
+			// a delivery got a run through in the meantime
+			return;
+		}
+		if (submit()) {
+			backlogged.set(false);
+			resumeReading();
 		} else {
-            // Remove the LSA associated with the disconnected device
-		    LSA deadLSA = router.lsd._store.remove(link.router2.simulatedIPAddress);
-
-		    // Retrieve this router's LSA
-		    tempLSA = router.lsd._store.get(router.rd.simulatedIPAddress);
-
-            // Remove any links to the disconnected device from this router's LSA
-            for (int i = 0; i < tempLSA.links.size(); i++)  {
-                if (tempLSA.links.get(i).linkID.equals(link.router2.simulatedIPAddress)) {
-                    tempLSA.links.remove(i);
-                    tempLSA.lsaSeqNumber++;
-                    i--;
-                    System.out.println("INFO: Removed " + link.router2.simulatedIPAddress + " from my LSA.");
-                }
-            }
-        }
-
-		// Add the updated link state advertisement to the link state database
-		router.lsd._store.put(tempLSA.linkStateID, tempLSA);
-//		System.out.println("LSA: " + tempLSA.toString());
-
-		return tempLSA;
+			retryLater();
+		}
 	}
 
-	//TODO: Implement a function to handle receiving an exit packet
-	public void run() {
-
-		ObjectInputStream inputStream = null;
-		ObjectOutputStream outputStream = null;
+	// hand this to the executor, with scheduled set; false if the executor turned it down
+	private boolean submit() {
+		try {
+			router.executor.execute(this);
+			return true;
+		} catch (RejectedExecutionException e) {
+			scheduled.set(false);
+			return false;
+		}
+	}
 
+	private void retryLater() {
+		if (router.executor.isShutdown()) {
+			return;
+		}
 		try {
+			router.timer.schedule(() -> retry(), RETRY, TimeUnit.MILLISECONDS);
+		} catch (RejectedExecutionException e) {
+			// the router is shutting down
+		}
+	}
 
-			// get packet from InputStream
-			inputStream = new ObjectInputStream(this.socket.getInputStream());
-			SOSPFPacket message = (SOSPFPacket) inputStream.readObject();
+	private void resumeReading() {
+		NeighborChannel current = channel;
+		if (current != null) {
+			current.resumeReading();
+		}
+	}
 
-			// -----------------------------------------------------------------------------------------------------------------------------------------
-			// check if message is HELLO message
-			if (message.sospfType == 0) {
+	public void run() {
+		do {
+			SOSPFPacket message;
+			while ((message = inbox.poll()) != null) {
+				try {
+					handle(message);
+					if (link != null) {
+						link.heard();
+					}
+				} catch (Exception e) {
+					log.error(router.rd.simulatedIPAddress + ": could not handle packet of type " + message.sospfType, e);
+				}
+			}
+			// everything the packets made us flood goes out together
+			if (link != null) {
+				router.area(link.area).flooder.flush();
+			}
+			scheduled.set(false);
+			// a packet delivered after the inbox ran empty but before the flag was cleared is ours
+		} while (!inbox.isEmpty() && scheduled.compareAndSet(false, true));
+	}
 
-				System.out.println("\nreceived HELLO from " + message.neighborID + ";");
+	// handle a packet arriving on the channel
+	protected void handle(SOSPFPacket message) throws IOException {
 
-				// message.neighborID identifies sender of packet
+		// -----------------------------------------------------------------------------------------------------------------------------------------
+		// check if message is HELLO message
+		if (message.sospfType == 0) {
+			receiveHello(message);
 
-				// add a neighbour
-				boolean addNeighbour = true;
+		// message is Link State Packet
+		//-----------------------------------------------------------------------------------------------------------------------------------------
+		} else if (message.sospfType == 1) {
+//				System.out.println(" -- Received LSP -- ");
 
-				// check to see if sender is already a neighbour
-				for (Link currLink : router.ports) {
-					// sender is already a neighbour (dont want to addNeighbour)
-					if (currLink.router2.simulatedIPAddress.equals(message.neighborID)) {
-						addNeighbour = false;
-					}
+			//if the incoming LSA is newer than current or new router, it is installed and queued for the
+			//other neighbours, which is sent once the inbox is empty
+			if (link != null) {
+				Flooder flooder = router.area(link.area).flooder;
+				for (LSA receivedLSA : message.lsaArray) {
+					flooder.receive(receivedLSA, link);
 				}
+				for (LSADelta receivedDelta : message.deltaArray) {
+					flooder.receive(receivedDelta, link);
+				}
+			}
 
-				// if sender is not already a neighbour, then add as neighbour
-				if (addNeighbour) {
-
-					// add a new Neighbour to myRouter
-					if (router.ports.size() < 4) {
-						// create new RouterDescription for Neighbour
-						RouterDescription remoteRouter = new RouterDescription();
-						remoteRouter.processIPAddress = message.srcProcessIP;
-						remoteRouter.simulatedIPAddress = message.neighborID;
-						remoteRouter.processPortNumber = message.srcProcessPort;
-						remoteRouter.status = RouterStatus.INIT;
+		// message is Link State Request, the neighbour could not apply a delta and wants the full LSAs
+		//-----------------------------------------------------------------------------------------------------------------------------------------
+		} else if (message.sospfType == 3) {
+			if (link != null) {
+				for (LSA header : message.lsaArray) {
+					router.area(link.area).flooder.request(link, header.linkStateID);
+				}
+			}
 
-						router.ports.add(new Link(router.rd, remoteRouter, message.srcWeight));
+		// message is Data, to be forwarded towards its destination or answered
+		//-----------------------------------------------------------------------------------------------------------------------------------------
+		} else if (message.sospfType == 5) {
+			router.forwarder.receive(message, link);
 
-						System.out.println("set " + message.neighborID + " state to INIT;");
+		// message is Database Description, the summary of the neighbour's LSAs right after TWO_WAY
+		//-----------------------------------------------------------------------------------------------------------------------------------------
+		} else if (message.sospfType == 4) {
+			if (link != null) {
+				router.area(link.area).flooder.receiveDescription(message.lsaArray, link);
+			}
 
-                    // cannot add new Neighbour because myRouter.ports are full
-					} else {
-						System.out.println("Error: Cannot add new Neighbour, ports are full");
-					}
+			// message is Exit Packet
+			//-----------------------------------------------------------------------------------------------------------------------------------------
+		} else if (message.sospfType == 2) {
+//			    System.out.println("INFO: Received a deletion request from " + message.srcIP + ".");
 
+			// Find the port that it belongs to
+			Link deadLink = null;
+			for (Link l : router.ports) {
+				if (message.srcIP.equals(l.router2.simulatedIPAddress)) {
+					deadLink = l;
+					break;
 				}
-				// Prepare response ---------------------------------------------------------------------
-
-				// create new SOSPF packet with HELLO message
-				SOSPFPacket response = new SOSPFPacket();
-				response.sospfType = 0;
-				response.neighborID = router.rd.simulatedIPAddress;
-				response.srcProcessIP = router.rd.processIPAddress;
-				response.srcProcessPort = router.rd.processPortNumber;
+			}
 
-				// send response to client
-				outputStream = new ObjectOutputStream(this.socket.getOutputStream());
-				outputStream.writeObject(response);
+			// the port is already gone when this router asked for the disconnect, so this is the confirmation
+			if (deadLink == null) {
+				log.info("{}: disconnect from {} was successful", router.rd.simulatedIPAddress, message.srcIP);
+				channel.close();
+				return;
+			}
 
-				// get response from client
-				response = (SOSPFPacket) inputStream.readObject();
+			// Create the response packet
+			SOSPFPacket confirmDisconnect = new SOSPFPacket();
+			confirmDisconnect.sospfType = 2;
+			confirmDisconnect.srcIP = router.rd.simulatedIPAddress;
+			confirmDisconnect.srcProcessPort = router.rd.processPortNumber;
+			confirmDisconnect.dstIP = message.srcIP;
+			confirmDisconnect.srcProcessIP = router.rd.processIPAddress;
+
+			// Send the packet, this is the last one on the channel
+			channel.send(confirmDisconnect);
+			channel.close();
+
+			// by the link rather than its position, which other handlers and the keepalive timer shift
+			// while this one runs; if one of them removed it already, it has updated the LSA too
+			if (!router.ports.remove(deadLink)) {
+				return;
+			}
+			log.info("{}: removed {} from ports", router.rd.simulatedIPAddress, deadLink.router2.simulatedIPAddress);
 
-				// confirm it is a HELLO response
-				if (response.sospfType == 0) {
-					System.out.println("received HELLO from " + response.neighborID + ";");
+			// updateLSA actually updates the LSD and LSA, the new version goes out with the next origination
+			updateLSA(deadLink, 1);
+			router.area(deadLink.area).originate();
+//                System.out.println(router.lsd._store.keySet());
+		}
+	}
 
-					// set myRouter.neighbourID.status to TWO_WAY
-					for (Link currLink : router.ports) {
-						// check if already TWO WAY
-						if (currLink.router2.simulatedIPAddress.equals(response.neighborID)) {
+	// HELLO on an accepted channel: the first one adds the sender as INIT and is answered, the second
+	// one completes the exchange
+	private void receiveHello(SOSPFPacket message) throws IOException {
 
-							currLink.router2.status = RouterStatus.TWO_WAY;
-							System.out.println("set " + response.neighborID + " state to TWO_WAY;");
+		// the adjacency is already up
+		if (twoWay) {
+			return;
+		}
 
-							sendLSP(updateLSA(currLink, 0));
-						}
+		if (!helloReplied) {
+			log.info("{}: received HELLO from {}", router.rd.simulatedIPAddress, message.neighborID);
+
+			// message.neighborID identifies sender of packet
+
+			// add a neighbour
+			boolean addNeighbour = true;
+
+			// check to see if sender is already a neighbour
+			for (Link currLink : router.ports) {
+				// sender is already a neighbour (dont want to addNeighbour)
+				if (currLink.router2.simulatedIPAddress.equals(message.neighborID)) {
+					addNeighbour = false;
+					// both ends must have attached the link in the same area
+					if (currLink.area != message.areaID) {
+						log.warn("{}: {} is attached in area {}, not {}, refusing it", router.rd.simulatedIPAddress, message.neighborID, currLink.area,
+								message.areaID);
+						channel.close();
+						return;
 					}
 				}
+			}
 
-				// message is Link State Packet
-				//-----------------------------------------------------------------------------------------------------------------------------------------
-			} else if (message.sospfType == 1) {
-//				System.out.println(" -- Received LSP -- ");
+			// if sender is not already a neighbour, then add as neighbour
+			if (addNeighbour) {
 
-				for (LSA receivedLSA : message.lsaArray) {
-					LSA currentLSA = router.lsd._store.get(receivedLSA.linkStateID);
+				// add a new Neighbour to myRouter
+				if (router.ports.size() < router.maxPorts) {
+					// create new RouterDescription for Neighbour
+					RouterDescription remoteRouter = new RouterDescription();
+					remoteRouter.processIPAddress = message.srcProcessIP;
+					remoteRouter.simulatedIPAddress = message.neighborID;
+					remoteRouter.processPortNumber = message.srcProcessPort;
+					remoteRouter.status = RouterStatus.INIT;
 
-					//if the incoming LSA is newer than current or new router
-					if (!router.lsd._store.containsKey(receivedLSA.linkStateID) || (receivedLSA.lsaSeqNumber > currentLSA.lsaSeqNumber)) {
-						//System.out.println("NLSA : " + message.lsaArray.lastElement().toString());
-						router.lsd._store.put(receivedLSA.linkStateID, receivedLSA);
+					router.ports.add(new Link(router.rd, remoteRouter, message.srcWeight, message.areaID));
 
-						sendLSP(receivedLSA);
-					}
+					log.info("{}: set {} state to INIT", router.rd.simulatedIPAddress, message.neighborID);
+
+				// cannot add new Neighbour because myRouter.ports are full
+				} else {
+					log.warn("{}: cannot add neighbour {}, ports are full", router.rd.simulatedIPAddress, message.neighborID);
+					channel.close();
+					return;
 				}
 
-                // message is Exit Packet
-                //-----------------------------------------------------------------------------------------------------------------------------------------
-			} else if (message.sospfType == 2) {
-//			    System.out.println("INFO: Received a deletion request from " + message.srcIP + ".");
+			}
+			// Prepare response ---------------------------------------------------------------------
+
+			// create new SOSPF packet with HELLO message
+			SOSPFPacket response = new SOSPFPacket();
+			response.sospfType = 0;
+			response.neighborID = router.rd.simulatedIPAddress;
+			response.srcProcessIP = router.rd.processIPAddress;
+			response.srcProcessPort = router.rd.processPortNumber;
+			response.areaID = message.areaID;
+
+			// send response to client
+			channel.send(response);
+			helloReplied = true;
+			return;
+		}
 
-			    // Create the response packet
-                SOSPFPacket confirmDisconnect = new SOSPFPacket();
-                confirmDisconnect.sospfType = 2;
-                confirmDisconnect.srcIP = router.rd.simulatedIPAddress;
-                confirmDisconnect.srcProcessPort = router.rd.processPortNumber;
-                confirmDisconnect.dstIP = message.srcIP;
-                confirmDisconnect.srcProcessIP = router.rd.processIPAddress;
-
-                // Send the packet
-                outputStream = new ObjectOutputStream(this.socket.getOutputStream());
-                outputStream.writeObject(confirmDisconnect);
-                outputStream.close();
-
-                // Find the port that it belongs to
-                int i = 0;
-                Link deadLink = null;
-                for (Link l : router.ports) {
-                    if (message.srcIP.equals(l.router2.simulatedIPAddress)) {
-                        deadLink = l;
-                        break;
-                    }
-                    else {
-                        i++;
-                    }
-                }
-
-                if (deadLink == null) {
-                    System.out.println("ERROR: Could not find the port to delete.");
-                    throw new RuntimeException();
-                }
-
-                Link confirmDead = router.ports.remove(i);
-                System.out.println("INFO: Removed " + confirmDead.router2.simulatedIPAddress + " from ports." );
-
-                // updateLSA actually updates the LSD and LSA. This must always run, so don't nest this
-                //      inside sendLSP.
-                LSA freshLSA = updateLSA(confirmDead, 1);
-                sendLSP(freshLSA);
-//                System.out.println(router.lsd._store.keySet());
-            }
-
-		} catch (Exception e) {
-			e.printStackTrace();
-		} finally {
-			try {
-				inputStream.close();
-				//outputStream.close();
-				this.socket.close();
-			} catch (Exception e) {
-				e.printStackTrace();
+		// the client answered our HELLO
+		log.info("{}: received HELLO from {}", router.rd.simulatedIPAddress, message.neighborID);
+
+		// set myRouter.neighbourID.status to TWO_WAY
+		for (Link currLink : router.ports) {
+			// check if already TWO WAY
+			if (currLink.router2.simulatedIPAddress.equals(message.neighborID)) {
+
+				currLink.heard();
+				currLink.router2.status = RouterStatus.TWO_WAY;
+				Area area = router.area(currLink.area);
+				area.flooder.reset(currLink);
+				currLink.channel = channel;
+				link = currLink;
+				twoWay = true;
+				log.info("{}: set {} state to TWO_WAY", router.rd.simulatedIPAddress, message.neighborID);
+
+				updateLSA(currLink, 0);
+				area.originate();
+				area.flooder.describe(currLink);
 			}
 		}
 	}
+
+	// called once the channel is closed, by either end; stop using it for the link it was serving
+	void closed() {
+		for (Link current : router.ports) {
+			if (current.channel == channel) {
+				current.channel = null;
+			}
+		}
+		if (link != null && link.channel == channel) {
+			link.channel = null;
+		}
+	}
 }
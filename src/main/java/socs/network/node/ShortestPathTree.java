@@ -0,0 +1,600 @@
+package socs.network.node;
+
+import socs.network.message.LSA;
+import socs.network.message.LinkDescription;
+import socs.network.util.IndexedMinHeap;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * shortest path tree rooted at this router, computed once from a snapshot of the link state
+ * database with a heap based dijkstra; every path query afterwards only walks the predecessor chain
+ * <p/>
+ * the tree keeps its own copy of the adjacency it was computed from, so that a changed LSA can be
+ * diffed against it and only the part of the tree it affects is repaired (incremental SPF)
+ * <p/>
+ * a tree is not thread safe; queries from other threads go to a snapshot, which never changes
+ * <p/>
+ * the tree itself keeps one predecessor per router, but a snapshot also records every neighbour
+ * through which a router is reached at the same cost, for equal-cost multipath queries
+ * <p/>
+ * summary links, the routes of area border routers to routers of other areas, are not part of the
+ * tree: a snapshot reaches the routers the tree does not through the area border routers with the
+ * cheapest summary links to them, as if those were the last link of the path
+ */
+class ShortestPathTree {
+
+	static final int UNREACHABLE = Integer.MAX_VALUE;
+	// the root is the first router the tree learns about
+	private static final int ROOT = 0;
+	private static final int[] NONE = new int[0];
+
+	// router ids are interned to dense node ids, everything below is indexed by node id
+	private final HashMap<String, Integer> index = new HashMap<String, Integer>(); // simulated ip => node id
+	private final List<String> names = new ArrayList<String>();                 // node id => simulated ip
+
+	// adjacency as one row of targets and weights per origin, replaced whole when its LSA changes,
+	// and the origins linking to each node, the first inCount of inSource being in use
+	private int[][] outTarget = new int[0][];
+	private int[][] outWeight = new int[0][];
+	private int[][] inSource = new int[0][];
+	private int[] inCount = new int[0];
+	// the summary links of each origin, kept like its real links but left out of the tree
+	private int[][] summaryTarget = new int[0][];
+	private int[][] summaryWeight = new int[0][];
+
+	private int[] distance = new int[0];
+	private int[] predecessor = new int[0];
+	private IndexedMinHeap heap = new IndexedMinHeap(0);
+
+	// scratch space of the updates, kept between them: node => position in the row being looked at
+	// or -1, the affected flags, a node stack and the children of every node in the tree
+	private int[] slot = new int[0];
+	private boolean[] marked = new boolean[0];
+	private int[] stack = new int[0];
+	private int[] childStart = new int[2];
+	private int[] children = new int[0];
+
+	// node id => every predecessor on a shortest path, only set in snapshots
+	private int[][] predecessors;
+	// node id => the first hops of its shortest paths, as bits over hopNodes; only set in snapshots
+	private BitSet[] firstHops;
+	private int[] hopNodes;
+	// the nodes only reached over summary links, only set in snapshots
+	private BitSet summarised;
+
+	ShortestPathTree(String root, Map<String, LSA> store) {
+		idOf(root);
+		for (LSA lsa : store.values()) {
+			setLinks(idOf(lsa.linkStateID), lsa);
+		}
+
+		// dijkstras algorithm from the root
+		int source = index.get(root);
+		distance[source] = 0;
+		heap.offer(source, 0);
+		run();
+	}
+
+	// read-only copy of the paths of the live tree
+	private ShortestPathTree(ShortestPathTree live) {
+		index.putAll(live.index);
+		names.addAll(live.names);
+		distance = Arrays.copyOf(live.distance, live.names.size());
+		predecessor = Arrays.copyOf(live.predecessor, live.names.size());
+		predecessors = new int[names.size()][];
+		for (int node = 0; node < names.size(); node++) {
+			predecessors[node] = live.equalCostPredecessors(node);
+		}
+		summarise(live);
+		collectFirstHops();
+	}
+
+	// reach the nodes the tree does not over the cheapest summary links into them; the summary links
+	// of the root are what it tells others, not routes of its own
+	private void summarise(ShortestPathTree live) {
+		summarised = new BitSet();
+		for (int origin = 0; origin < names.size(); origin++) {
+			if (origin == ROOT || live.distance[origin] == UNREACHABLE) {
+				continue;
+			}
+			int[] targets = live.summaryTarget[origin];
+			for (int i = 0; i < targets.length; i++) {
+				int target = targets[i];
+				if (live.distance[target] != UNREACHABLE) {
+					continue;
+				}
+				int candidate = distance[origin] + live.summaryWeight[origin][i];
+				if (candidate < distance[target]) {
+					distance[target] = candidate;
+					predecessor[target] = origin;
+					predecessors[target] = new int[] { origin };
+					summarised.set(target);
+				} else if (candidate == distance[target]) {
+					int[] equal = Arrays.copyOf(predecessors[target], predecessors[target].length + 1);
+					equal[equal.length - 1] = origin;
+					predecessors[target] = equal;
+				}
+			}
+		}
+		for (int target = summarised.nextSetBit(0); target >= 0; target = summarised.nextSetBit(target + 1)) {
+			Arrays.sort(predecessors[target]);
+		}
+	}
+
+	// the first hops of every node are those of its equal-cost predecessors, or the node itself when
+	// the root is one of them; visiting nodes by distance finds those of the predecessors first
+	private void collectFirstHops() {
+		int n = names.size();
+		long[] order = new long[n];
+		int reachable = 0;
+		for (int node = 0; node < n; node++) {
+			if (distance[node] != UNREACHABLE) {
+				order[reachable++] = (long) distance[node] << 32 | node;
+			}
+		}
+		Arrays.sort(order, 0, reachable);
+
+		firstHops = new BitSet[n];
+		int[] bit = new int[n];
+		int hops = 0;
+		for (int node = 0; node < n; node++) {
+			firstHops[node] = new BitSet();
+			bit[node] = -1;
+			if (Arrays.binarySearch(predecessors[node], ROOT) >= 0) {
+				bit[node] = hops++;
+			}
+		}
+		hopNodes = new int[hops];
+		for (int node = 0; node < n; node++) {
+			if (bit[node] != -1) {
+				hopNodes[bit[node]] = node;
+			}
+		}
+
+		// a zero weight link puts a predecessor at the same distance, maybe later in the order, so
+		// then go over them again until nothing changes
+		boolean tied = false;
+		boolean changed = true;
+		while (changed) {
+			changed = false;
+			for (int k = 0; k < reachable; k++) {
+				int node = (int) order[k];
+				int before = firstHops[node].cardinality();
+				for (int from : predecessors[node]) {
+					if (from == ROOT) {
+						firstHops[node].set(bit[node]);
+					} else {
+						firstHops[node].or(firstHops[from]);
+						tied |= distance[from] == distance[node];
+					}
+				}
+				changed |= firstHops[node].cardinality() != before;
+			}
+			changed &= tied;
+		}
+	}
+
+	ShortestPathTree snapshot() {
+		return new ShortestPathTree(this);
+	}
+
+	// the origins of all links into the node that lie on a shortest path to it, in id order
+	private int[] equalCostPredecessors(int node) {
+		if (node == ROOT || distance[node] == UNREACHABLE) {
+			return NONE;
+		}
+		int[] found = new int[inCount[node]];
+		int count = 0;
+		for (int i = 0; i < inCount[node]; i++) {
+			int from = inSource[node][i];
+			if (distance[from] != UNREACHABLE && distance[from] + weightOf(from, node) == distance[node]) {
+				found[count++] = from;
+			}
+		}
+		found = Arrays.copyOf(found, count);
+		Arrays.sort(found);
+		return found;
+	}
+
+	/**
+	 * repair the tree after the LSA of the given originator changed; a null LSA means it was removed
+	 * from the database. Only nodes below a tree edge that was removed or got more expensive are
+	 * reset, and only they and the nodes improved by cheaper or new links go through the heap
+	 */
+	void update(String originator, LSA lsa) {
+		int origin = idOf(originator);
+		int[] beforeTarget = outTarget[origin];
+		int[] beforeWeight = outWeight[origin];
+		setLinks(origin, lsa);
+		int[] afterTarget = outTarget[origin];
+		int[] afterWeight = outWeight[origin];
+
+		// an unreachable originator contributes nothing to the tree, before or after
+		if (distance[origin] == UNREACHABLE) {
+			return;
+		}
+
+		// collect the subtrees hanging off tree edges of the originator that got worse
+		for (int i = 0; i < afterTarget.length; i++) {
+			slot[afterTarget[i]] = i;
+		}
+		int affected = 0;
+		for (int i = 0; i < beforeTarget.length; i++) {
+			int target = beforeTarget[i];
+			int at = slot[target];
+			if (predecessor[target] == origin && (at == -1 || afterWeight[at] > beforeWeight[i]) && !marked[target]) {
+				marked[target] = true;
+				stack[affected++] = target;
+			}
+		}
+		for (int target : afterTarget) {
+			slot[target] = -1;
+		}
+
+		if (affected > 0) {
+			affected = collectSubtrees(affected);
+			for (int i = 0; i < affected; i++) {
+				distance[stack[i]] = UNREACHABLE;
+				predecessor[stack[i]] = -1;
+			}
+			// re-attach every affected node through its best neighbour outside of the affected set
+			for (int i = 0; i < affected; i++) {
+				int node = stack[i];
+				for (int k = 0; k < inCount[node]; k++) {
+					int from = inSource[node][k];
+					if (!marked[from] && distance[from] != UNREACHABLE) {
+						relax(from, node, weightOf(from, node));
+					}
+				}
+			}
+			for (int i = 0; i < affected; i++) {
+				marked[stack[i]] = false;
+			}
+		}
+
+		// links of the originator that are new or got cheaper may improve their targets
+		for (int i = 0; i < afterTarget.length; i++) {
+			relax(origin, afterTarget[i], afterWeight[i]);
+		}
+		run();
+	}
+
+	// settle everything currently queued, pushing improvements further down the tree
+	private void run() {
+		while (!heap.isEmpty()) {
+			int current = heap.poll();
+			int[] targets = outTarget[current];
+			int[] weights = outWeight[current];
+			for (int i = 0; i < targets.length; i++) {
+				relax(current, targets[i], weights[i]);
+			}
+		}
+	}
+
+	private void relax(int from, int to, int weight) {
+		int candidate = distance[from] + weight;
+		if (candidate < distance[to]) {
+			distance[to] = candidate;
+			predecessor[to] = from;
+			heap.offer(to, candidate);
+		}
+	}
+
+	// extend the marked subtree roots in stack[0..count) with all of their descendants; returns the
+	// new count. The children of every node are laid out in one array, grouped by parent
+	private int collectSubtrees(int count) {
+		int n = names.size();
+		// count the children of p at p + 2, so that after the prefix sums p + 1 holds where the group of
+		// p starts, and after filling p holds that and p + 1 where it ends
+		Arrays.fill(childStart, 0, n + 2, 0);
+		for (int node = 0; node < n; node++) {
+			if (predecessor[node] != -1) {
+				childStart[predecessor[node] + 2]++;
+			}
+		}
+		for (int node = 2; node < n + 2; node++) {
+			childStart[node] += childStart[node - 1];
+		}
+		for (int node = 0; node < n; node++) {
+			int parent = predecessor[node];
+			if (parent != -1) {
+				children[childStart[parent + 1]++] = node;
+			}
+		}
+
+		for (int next = 0; next < count; next++) {
+			int parent = stack[next];
+			for (int k = childStart[parent]; k < childStart[parent + 1]; k++) {
+				int child = children[k];
+				if (!marked[child]) {
+					marked[child] = true;
+					stack[count++] = child;
+				}
+			}
+		}
+		return count;
+	}
+
+	// replace the links of the origin by the real links of the LSA, none for a null LSA, keeping the
+	// cheapest of parallel links, and its summary links likewise
+	private void setLinks(int origin, LSA lsa) {
+		for (int target : outTarget[origin]) {
+			removeIncoming(target, origin);
+		}
+
+		int[] targets = NONE;
+		int[] weights = NONE;
+		int count = 0;
+		summaryTarget[origin] = NONE;
+		summaryWeight[origin] = NONE;
+		if (lsa != null) {
+			targets = new int[lsa.size()];
+			weights = new int[lsa.size()];
+			int summaries = 0;
+			for (int i = 0; i < lsa.size(); i++) {
+				if (lsa.portNum(i) == LinkDescription.SUMMARY) {
+					summaries++;
+				}
+			}
+			if (summaries > 0) {
+				setSummaries(origin, lsa, summaries);
+			}
+			for (int i = 0; i < lsa.size(); i++) {
+				// the self entry added by initLinkStateDatabase is not a real link
+				int portNum = lsa.portNum(i);
+				if (portNum == -1 || portNum == LinkDescription.SUMMARY) {
+					continue;
+				}
+				int target = idOf(lsa.linkID(i));
+				int at = slot[target];
+				if (at != -1) {
+					weights[at] = Math.min(weights[at], lsa.tosMetrics(i));
+					continue;
+				}
+				slot[target] = count;
+				targets[count] = target;
+				weights[count] = lsa.tosMetrics(i);
+				count++;
+			}
+			for (int i = 0; i < count; i++) {
+				slot[targets[i]] = -1;
+			}
+		}
+
+		outTarget[origin] = count == targets.length ? targets : Arrays.copyOf(targets, count);
+		outWeight[origin] = count == weights.length ? weights : Arrays.copyOf(weights, count);
+		for (int i = 0; i < count; i++) {
+			addIncoming(targets[i], origin);
+		}
+	}
+
+	private void setSummaries(int origin, LSA lsa, int summaries) {
+		int[] targets = new int[summaries];
+		int[] weights = new int[summaries];
+		int count = 0;
+		for (int i = 0; i < lsa.size(); i++) {
+			if (lsa.portNum(i) != LinkDescription.SUMMARY) {
+				continue;
+			}
+			int target = idOf(lsa.linkID(i));
+			int at = slot[target];
+			if (at != -1) {
+				weights[at] = Math.min(weights[at], lsa.tosMetrics(i));
+				continue;
+			}
+			slot[target] = count;
+			targets[count] = target;
+			weights[count] = lsa.tosMetrics(i);
+			count++;
+		}
+		for (int i = 0; i < count; i++) {
+			slot[targets[i]] = -1;
+		}
+		summaryTarget[origin] = Arrays.copyOf(targets, count);
+		summaryWeight[origin] = Arrays.copyOf(weights, count);
+	}
+
+	private void addIncoming(int node, int origin) {
+		if (inCount[node] == inSource[node].length) {
+			inSource[node] = Arrays.copyOf(inSource[node], Math.max(4, inCount[node] * 2));
+		}
+		inSource[node][inCount[node]++] = origin;
+	}
+
+	private void removeIncoming(int node, int origin) {
+		int[] sources = inSource[node];
+		for (int i = 0; i < inCount[node]; i++) {
+			if (sources[i] == origin) {
+				sources[i] = sources[--inCount[node]];
+				return;
+			}
+		}
+	}
+
+	private int weightOf(int from, int to) {
+		int[] targets = outTarget[from];
+		for (int i = 0; i < targets.length; i++) {
+			if (targets[i] == to) {
+				return outWeight[from][i];
+			}
+		}
+		return UNREACHABLE;
+	}
+
+	private int idOf(String ip) {
+		Integer id = index.get(ip);
+		if (id == null) {
+			id = names.size();
+			index.put(ip, id);
+			names.add(ip);
+			grow(names.size());
+		}
+		return id;
+	}
+
+	// make room for newly seen routers, which start out unreachable and without links
+	private void grow(int size) {
+		if (size <= distance.length) {
+			return;
+		}
+		int old = distance.length;
+		int capacity = Math.max(size, old * 2);
+		outTarget = Arrays.copyOf(outTarget, capacity);
+		outWeight = Arrays.copyOf(outWeight, capacity);
+		inSource = Arrays.copyOf(inSource, capacity);
+		inCount = Arrays.copyOf(inCount, capacity);
+		summaryTarget = Arrays.copyOf(summaryTarget, capacity);
+		summaryWeight = Arrays.copyOf(summaryWeight, capacity);
+		distance = Arrays.copyOf(distance, capacity);
+		predecessor = Arrays.copyOf(predecessor, capacity);
+		slot = Arrays.copyOf(slot, capacity);
+		marked = Arrays.copyOf(marked, capacity);
+		for (int i = old; i < capacity; i++) {
+			outTarget[i] = NONE;
+			outWeight[i] = NONE;
+			inSource[i] = NONE;
+			summaryTarget[i] = NONE;
+			summaryWeight[i] = NONE;
+			distance[i] = UNREACHABLE;
+			predecessor[i] = -1;
+			slot[i] = -1;
+		}
+		stack = new int[capacity];
+		childStart = new int[capacity + 2];
+		children = new int[capacity];
+		heap = new IndexedMinHeap(capacity);
+	}
+
+	/**
+	 * every router the tree knows of, reachable or not
+	 */
+	List<String> routers() {
+		return Collections.unmodifiableList(names);
+	}
+
+	/**
+	 * whether the router is only reached over a summary link, being in another area; only on snapshots
+	 */
+	boolean isSummarised(String destinationIP) {
+		Integer id = index.get(destinationIP);
+		return id != null && summarised.get(id);
+	}
+
+	/**
+	 * the neighbour of the root on the path of pathTo, null for the root or an unreachable router
+	 */
+	String firstHop(String destinationIP) {
+		Integer id = index.get(destinationIP);
+		if (id == null || id == ROOT || distance[id] == UNREACHABLE) {
+			return null;
+		}
+		int current = id;
+		while (predecessor[current] != ROOT) {
+			current = predecessor[current];
+		}
+		return names.get(current);
+	}
+
+	/**
+	 * distance from the root to the given router, UNREACHABLE if there is no path
+	 */
+	int distanceTo(String destinationIP) {
+		Integer id = index.get(destinationIP);
+		return id == null ? UNREACHABLE : distance[id];
+	}
+
+	/**
+	 * format: source ip address ->(weight) ip address -> ... ->(weight) destination ip
+	 */
+	String pathTo(String destinationIP) {
+		Integer id = index.get(destinationIP);
+		if (id == null || distance[id] == UNREACHABLE) {
+			return destinationIP;
+		}
+
+		// walk back from the destination, then emit the hops in order
+		List<Integer> hops = new ArrayList<Integer>();
+		for (int current = id; current != -1; current = predecessor[current]) {
+			hops.add(current);
+		}
+		return format(hops);
+	}
+
+	/**
+	 * every shortest path to the given router, at most limit of them, in the format of pathTo; only
+	 * on snapshots
+	 */
+	List<String> pathsTo(String destinationIP, int limit) {
+		List<String> paths = new ArrayList<String>();
+		Integer id = index.get(destinationIP);
+		if (id == null || distance[id] == UNREACHABLE) {
+			paths.add(destinationIP);
+			return paths;
+		}
+
+		List<Integer> hops = new ArrayList<Integer>();
+		hops.add(id);
+		collectPaths(hops, new boolean[names.size()], paths, limit);
+		return paths;
+	}
+
+	// extend the path, which runs backwards from the destination, along every equal-cost predecessor
+	// until it reaches the root; zero weight links could otherwise lead around in a circle
+	private void collectPaths(List<Integer> hops, boolean[] onPath, List<String> paths, int limit) {
+		int node = hops.get(hops.size() - 1);
+		if (node == ROOT) {
+			paths.add(format(hops));
+			return;
+		}
+		onPath[node] = true;
+		for (int from : predecessors[node]) {
+			if (paths.size() >= limit) {
+				break;
+			}
+			if (!onPath[from]) {
+				hops.add(from);
+				collectPaths(hops, onPath, paths, limit);
+				hops.remove(hops.size() - 1);
+			}
+		}
+		onPath[node] = false;
+	}
+
+	/**
+	 * the neighbours of the root that are the first hop of some shortest path to the given router;
+	 * only on snapshots
+	 */
+	Set<String> nextHops(String destinationIP) {
+		Set<String> hops = new TreeSet<String>();
+		Integer id = index.get(destinationIP);
+		if (id == null || id == ROOT || distance[id] == UNREACHABLE) {
+			return hops;
+		}
+
+		BitSet bits = firstHops[id];
+		for (int i = bits.nextSetBit(0); i >= 0; i = bits.nextSetBit(i + 1)) {
+			hops.add(names.get(hopNodes[i]));
+		}
+		return hops;
+	}
+
+	// hops run from the destination back to the root
+	private String format(List<Integer> hops) {
+		StringBuilder sb = new StringBuilder(names.get(hops.get(hops.size() - 1)));
+		for (int k = hops.size() - 2; k >= 0; k--) {
+			int node = hops.get(k);
+			int edgeWeight = distance[node] - distance[hops.get(k + 1)];
+			sb.append(" ->(").append(edgeWeight).append(") ").append(names.get(node));
+		}
+		return sb.toString();
+	}
+}
@@ -0,0 +1,405 @@
+package socs.network.node;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+
+import socs.network.message.LSA;
+import socs.network.util.Configuration;
+
+/**
+ * runs a whole topology of routers in one JVM over a LoopbackNetwork: attaches and starts every
+ * router, waits until they have converged and reports how long that took and the packets it cost;
+ * then fails links one at a time and does the same for every reconvergence; then crashes routers
+ * one at a time, which their neighbours only notice when the HELLOs stop, and finally waits until
+ * the LSAs of the crashed routers have aged out of every database, if lsa.maxAge is within the timeout
+ * <p/>
+ * converged means every adjacency is TWO_WAY, in every area every router has the current LSA of
+ * every router it can reach inside the area, no SPF run is pending and the forwarding table covers
+ * every reachable router
+ * <p/>
+ * usage: Simulation (topology file | ring:N | grid:N | scalefree:N) [-a areas] [-c router.conf]
+ * [-f failures] [-k crashes] [-t timeout seconds] [-w workers] [-v]
+ */
+public class Simulation {
+
+	private static final String[] TYPES = Metrics.PACKET_TYPES;
+	private static final long POLL = 5;
+
+	private final Topology topology;
+	private final LoopbackNetwork network;
+	private final Router[] routers;
+	private final boolean[] crashed;
+	// the links still up, as in Topology.links
+	private final List<int[]> links;
+	private final PrintStream console;
+
+	private Simulation(Topology topology, String conf, int workers, PrintStream console) {
+		this.topology = topology;
+		this.console = console;
+		links = new ArrayList<int[]>(topology.links);
+		network = new LoopbackNetwork(workers);
+		routers = new Router[topology.routers.size()];
+		crashed = new boolean[routers.length];
+		int maxPorts = Math.max(4, topology.maxDegree());
+		for (int i = 0; i < routers.length; i++) {
+			Configuration config = conf == null ? new Configuration() : new Configuration(conf);
+			config.addEntry("socs.network.router.ip", topology.routers.get(i));
+			config.addEntry("socs.network.router.port", String.valueOf(i + 1));
+			config.addEntry("socs.network.router.maxPorts", String.valueOf(maxPorts));
+			routers[i] = new Router(config, network);
+		}
+	}
+
+	public static void main(String[] args) throws Exception {
+		if (args.length < 1) {
+			System.out.println("usage: Simulation (topology file | ring:N | grid:N | scalefree:N) [-a areas] [-c router.conf] [-f failures] [-k crashes] [-t timeout seconds] [-w workers] [-v]");
+			System.exit(1);
+		}
+		String conf = null;
+		int areas = 1;
+		int failures = 0;
+		int crashes = 0;
+		long timeout = 60;
+		int workers = Runtime.getRuntime().availableProcessors();
+		boolean verbose = false;
+		for (int i = 1; i < args.length; i++) {
+			if (args[i].equals("-a")) {
+				areas = Integer.parseInt(args[++i]);
+			} else if (args[i].equals("-c")) {
+				conf = args[++i];
+			} else if (args[i].equals("-f")) {
+				failures = Integer.parseInt(args[++i]);
+			} else if (args[i].equals("-k")) {
+				crashes = Integer.parseInt(args[++i]);
+			} else if (args[i].equals("-t")) {
+				timeout = Long.parseLong(args[++i]);
+			} else if (args[i].equals("-w")) {
+				workers = Integer.parseInt(args[++i]);
+			} else if (args[i].equals("-v")) {
+				verbose = true;
+			} else {
+				System.out.println("ERROR: Unknown option " + args[i]);
+				System.exit(1);
+			}
+		}
+
+		Topology topology;
+		String[] generated = args[0].split(":");
+		if (generated.length == 2) {
+			topology = Topology.generate(generated[0], Integer.parseInt(generated[1]), 42, areas);
+		} else {
+			topology = Topology.read(args[0]);
+		}
+		if (topology.routers.size() > Short.MAX_VALUE) {
+			System.out.println("ERROR: At most " + Short.MAX_VALUE + " routers are supported.");
+			System.exit(1);
+		}
+
+		// the routers report every step, which drowns the results
+		PrintStream console = System.out;
+		if (!verbose) {
+			if (System.getProperty("socs.log.level") == null) {
+				System.setProperty("socs.log.level", "WARN");
+			}
+			System.setOut(new PrintStream(new OutputStream() {
+				public void write(int b) {
+				}
+			}));
+		}
+
+		Simulation simulation = new Simulation(topology, conf, workers, console);
+		boolean converged = simulation.start(timeout * 1000);
+		for (int i = 0; converged && i < failures; i++) {
+			converged = simulation.fail(new Random(42 + i), timeout * 1000);
+		}
+		for (int i = 0; converged && i < crashes; i++) {
+			converged = simulation.crash(new Random(4242 + i), timeout * 1000);
+		}
+		if (converged && crashes > 0) {
+			converged = simulation.awaitPurge(timeout);
+		}
+		System.exit(converged ? 0 : 2);
+	}
+
+	private boolean start(long timeout) {
+		int areas = topology.areas().size();
+		console.println("INFO: " + routers.length + " routers, " + links.size() + " links, max degree " + topology.maxDegree()
+				+ (areas > 1 ? ", " + areas + " areas" : ""));
+		for (int[] link : links) {
+			Router remote = routers[link[1]];
+			routers[link[0]].processAttach(remote.rd.processIPAddress, remote.rd.processPortNumber, remote.rd.simulatedIPAddress, (short) link[2],
+					link[3]);
+		}
+
+		long[] before = counters();
+		long start = System.nanoTime();
+		for (Router router : routers) {
+			router.processStart();
+		}
+		return report("start", start, before, timeout);
+	}
+
+	// take down a random link that is still up; with several areas not one whose loss splits the
+	// backbone, as the other areas only reach each other through it
+	private boolean fail(Random random, long timeout) {
+		List<int[]> candidates = new ArrayList<int[]>();
+		for (int[] link : links) {
+			if (!splitsBackbone(link)) {
+				candidates.add(link);
+			}
+		}
+		if (candidates.isEmpty()) {
+			return true;
+		}
+		int[] link = candidates.get(random.nextInt(candidates.size()));
+		links.remove(link);
+		Router router = routers[link[0]];
+		String neighbour = topology.routers.get(link[1]);
+
+		long[] before = counters();
+		long start = System.nanoTime();
+		for (int port = 0; port < router.ports.size(); port++) {
+			if (router.ports.get(port).router2.simulatedIPAddress.equals(neighbour)) {
+				router.processDisconnect((short) port);
+				break;
+			}
+		}
+		return report("failure of " + topology.routers.get(link[0]) + " - " + neighbour, start, before, timeout);
+	}
+
+	// stop a random router that is still up without a word to its neighbours: its channels just close
+	private boolean crash(Random random, long timeout) {
+		List<Integer> alive = new ArrayList<Integer>();
+		for (int i = 0; i < routers.length; i++) {
+			if (!crashed[i]) {
+				alive.add(i);
+			}
+		}
+		if (alive.size() < 2) {
+			return true;
+		}
+		int victim = alive.get(random.nextInt(alive.size()));
+		crashed[victim] = true;
+		for (Iterator<int[]> it = links.iterator(); it.hasNext(); ) {
+			int[] link = it.next();
+			if (link[0] == victim || link[1] == victim) {
+				it.remove();
+			}
+		}
+
+		long[] before = counters();
+		long start = System.nanoTime();
+		for (Link link : routers[victim].ports) {
+			NeighborChannel channel = link.channel;
+			if (channel != null) {
+				channel.closeNow();
+			}
+		}
+		return report("crash of " + topology.routers.get(victim), start, before, timeout);
+	}
+
+	private boolean report(String event, long start, long[] before, long timeout) {
+		boolean converged = awaitConvergence(start, timeout);
+		long elapsed = (System.nanoTime() - start) / 1000000;
+		long[] after = counters();
+
+		StringBuilder sb = new StringBuilder();
+		sb.append("INFO: ").append(converged ? "Converged" : "Not converged").append(" after ").append(event).append(" in ")
+				.append(elapsed).append(" ms; packets ").append(after[TYPES.length] - before[TYPES.length]).append(" (");
+		for (int type = 0; type < TYPES.length; type++) {
+			sb.append(type == 0 ? "" : ", ").append(TYPES[type]).append(' ').append(after[type] - before[type]);
+		}
+		sb.append("), ").append(after[TYPES.length + 1] - before[TYPES.length + 1]).append(" bytes, ")
+				.append(after[TYPES.length + 2] - before[TYPES.length + 2]).append(" LSAs, ")
+				.append(after[TYPES.length + 3] - before[TYPES.length + 3]).append(" deltas");
+		console.println(sb);
+		console.println("INFO: LSAs installed " + (after[TYPES.length + 4] - before[TYPES.length + 4]) + ", duplicate "
+				+ (after[TYPES.length + 5] - before[TYPES.length + 5]) + "; SPF runs " + (after[TYPES.length + 6] - before[TYPES.length + 6])
+				+ " taking " + (after[TYPES.length + 7] - before[TYPES.length + 7]) / 1000 + " ms over all routers");
+		return converged;
+	}
+
+	// packets per type, then packets, bytes, LSAs and deltas in total, then LSAs installed and
+	// duplicate, SPF runs and their time in microseconds over all routers
+	private long[] counters() {
+		long[] counters = new long[TYPES.length + 8];
+		for (int type = 0; type < TYPES.length; type++) {
+			counters[type] = network.packets(type);
+		}
+		counters[TYPES.length] = network.packets();
+		counters[TYPES.length + 1] = network.bytes();
+		counters[TYPES.length + 2] = network.lsas();
+		counters[TYPES.length + 3] = network.deltas();
+		for (Router router : routers) {
+			counters[TYPES.length + 4] += router.metrics.lsasInstalled.sum();
+			counters[TYPES.length + 5] += router.metrics.lsasDuplicate.sum();
+			counters[TYPES.length + 6] += router.metrics.spf.count();
+			counters[TYPES.length + 7] += router.metrics.spf.sum();
+		}
+		return counters;
+	}
+
+	// wait until no router that is up holds an LSA of a crashed one, unless they cannot age out
+	// within the timeout anyway
+	private boolean awaitPurge(long timeout) {
+		if (routers[0].maxAge > timeout) {
+			console.println("INFO: Not waiting for the LSAs of crashed routers to age out in " + routers[0].maxAge + " s");
+			return true;
+		}
+		long start = System.nanoTime();
+		while (stale() > 0) {
+			if ((System.nanoTime() - start) / 1000000 > timeout * 1000) {
+				console.println("INFO: " + stale() + " LSAs of crashed routers left after " + timeout * 1000 + " ms");
+				return false;
+			}
+			try {
+				Thread.sleep(POLL);
+			} catch (InterruptedException e) {
+				return false;
+			}
+		}
+		console.println("INFO: Purged the LSAs of crashed routers in " + (System.nanoTime() - start) / 1000000 + " ms");
+		return true;
+	}
+
+	private int stale() {
+		int stale = 0;
+		for (int r = 0; r < routers.length; r++) {
+			if (crashed[r]) {
+				continue;
+			}
+			for (Area area : routers[r].areas.values()) {
+				for (int c = 0; c < routers.length; c++) {
+					if (crashed[c] && area.lsd._store.containsKey(topology.routers.get(c))) {
+						stale++;
+					}
+				}
+			}
+		}
+		return stale;
+	}
+
+	private boolean awaitConvergence(long start, long timeout) {
+		while (!converged()) {
+			if ((System.nanoTime() - start) / 1000000 > timeout) {
+				return false;
+			}
+			try {
+				Thread.sleep(POLL);
+			} catch (InterruptedException e) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private boolean converged() {
+		for (int r = 0; r < routers.length; r++) {
+			Router router = routers[r];
+			if (crashed[r]) {
+				continue;
+			}
+			for (Area area : router.areas.values()) {
+				if (area.lsd.spfPending()) {
+					return false;
+				}
+			}
+			for (Link link : router.ports) {
+				if (link.router2.status != RouterStatus.TWO_WAY || link.channel == null) {
+					return false;
+				}
+			}
+		}
+
+		int[] component = components(-1);
+		for (int origin = 0; origin < routers.length; origin++) {
+			if (crashed[origin]) {
+				continue;
+			}
+			String originator = topology.routers.get(origin);
+			for (int i = 0; i < routers.length; i++) {
+				if (component[i] == component[origin] && routers[i].route(originator) == null) {
+					return false;
+				}
+			}
+		}
+
+		for (int id : topology.areas()) {
+			int[] inArea = components(id);
+			for (int origin = 0; origin < routers.length; origin++) {
+				Area area = routers[origin].areas.get(id);
+				if (crashed[origin] || area == null) {
+					continue;
+				}
+				String originator = topology.routers.get(origin);
+				LSA own = area.lsd._store.get(originator);
+				// the originator holds changes it has not flooded yet
+				if (own != area.lsd.published(originator)) {
+					return false;
+				}
+				for (int i = 0; i < routers.length; i++) {
+					if (i == origin || inArea[i] != inArea[origin]) {
+						continue;
+					}
+					Area theirs = routers[i].areas.get(id);
+					LSA copy = theirs == null ? null : theirs.lsd._store.get(originator);
+					if (copy == null || copy.lsaSeqNumber != own.lsaSeqNumber) {
+						return false;
+					}
+				}
+			}
+		}
+		return true;
+	}
+
+	// whether both ends of the backbone link keep other backbone links, but no backbone path between
+	// them without it
+	private boolean splitsBackbone(int[] link) {
+		if (link[3] != Area.BACKBONE || topology.areas().size() == 1) {
+			return false;
+		}
+		boolean[] inBackbone = new boolean[routers.length];
+		for (int[] other : links) {
+			if (other != link && other[3] == Area.BACKBONE) {
+				inBackbone[other[0]] = true;
+				inBackbone[other[1]] = true;
+			}
+		}
+		int[] component = components(Area.BACKBONE, link);
+		return inBackbone[link[0]] && inBackbone[link[1]] && component[link[0]] != component[link[1]];
+	}
+
+	private int[] components(int area) {
+		return components(area, null);
+	}
+
+	// router index => representative of its connected component over the links still up in the
+	// given area, or in any area for -1, leaving out the given link
+	private int[] components(int area, int[] without) {
+		int[] parent = new int[routers.length];
+		for (int i = 0; i < parent.length; i++) {
+			parent[i] = i;
+		}
+		for (int[] link : links) {
+			if (link != without && (area == -1 || link[3] == area)) {
+				parent[find(parent, link[0])] = find(parent, link[1]);
+			}
+		}
+		for (int i = 0; i < parent.length; i++) {
+			parent[i] = find(parent, i);
+		}
+		return parent;
+	}
+
+	private static int find(int[] parent, int i) {
+		while (parent[i] != i) {
+			parent[i] = parent[parent[i]];
+			i = parent[i];
+		}
+		return i;
+	}
+}
@@ -0,0 +1,265 @@
+package socs.network.node;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.net.ProtocolException;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import socs.network.message.PacketCodec;
+import socs.network.message.SOSPFPacket;
+import socs.network.message.WireFormat;
+
+/**
+ * neighbour channel over a TCP connection
+ * <p/>
+ * the socket is non-blocking and served by one EventLoop. Packets travel as frames of a 4 byte
+ * length followed by the payload, which is either a PacketCodec encoding or, for
+ * WireFormat.SERIALIZED, a serialized packet; the receiver tells them apart by the first byte, so
+ * routers with different formats still understand each other. Outgoing frames wait in a queue
+ * until the socket can take them, so send never blocks.
+ */
+class SocketNeighborChannel implements NeighborChannel {
+
+	private static final Logger log = LoggerFactory.getLogger(SocketNeighborChannel.class);
+
+	private static final int MAX_FRAME = 16 * 1024 * 1024;
+
+	private final SocketChannel socket;
+	private final EventLoop loop;
+	private final WireFormat format;
+	private final ServerThread handler;
+	private SelectionKey key;
+
+	// bytes read from the socket, in write mode between reads
+	private ByteBuffer readBuffer = ByteBuffer.allocate(8 * 1024);
+	private final ConcurrentLinkedQueue<ByteBuffer> writeQueue = new ConcurrentLinkedQueue<ByteBuffer>();
+	// the frames of one gathering write, only used on the event loop
+	private final ByteBuffer[] batch = new ByteBuffer[64];
+	private final AtomicBoolean flushScheduled = new AtomicBoolean();
+
+	// the handler is behind, OP_READ stays off until it catches up
+	private volatile boolean readPaused = false;
+	private volatile boolean closing = false; // close once the write queue is empty
+	private final AtomicBoolean closed = new AtomicBoolean();
+
+	SocketNeighborChannel(SocketChannel socket, EventLoop loop, WireFormat format, ServerThread handler) {
+		this.socket = socket;
+		this.loop = loop;
+		this.format = format;
+		this.handler = handler;
+		handler.channel = this;
+		loop.execute(() -> register());
+	}
+
+	private void register() {
+		try {
+			socket.configureBlocking(false);
+			// control packets and DATA are small and latency bound, Nagle would hold them back
+			socket.setOption(StandardSocketOptions.TCP_NODELAY, true);
+			key = loop.register(socket, SelectionKey.OP_READ, this);
+		} catch (IOException e) {
+			log.warn("Could not register channel {}: {}", this, e.getMessage());
+			closeNow();
+		}
+	}
+
+	/**
+	 * queue a packet for sending; may be called from any thread
+	 */
+	public void send(SOSPFPacket packet) throws IOException {
+		if (closing || closed.get()) {
+			throw new ClosedChannelException();
+		}
+		writeQueue.add(frame(packet));
+		handler.router.metrics.sent(packet.sospfType);
+		if (flushScheduled.compareAndSet(false, true)) {
+			loop.execute(() -> flush());
+		}
+	}
+
+	private ByteBuffer frame(SOSPFPacket packet) throws IOException {
+		if (format == WireFormat.SERIALIZED) {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			bytes.write(new byte[4]);
+			ObjectOutputStream output = new ObjectOutputStream(bytes);
+			output.writeObject(packet);
+			output.close();
+			ByteBuffer frame = ByteBuffer.wrap(bytes.toByteArray());
+			frame.putInt(0, frame.capacity() - 4);
+			return frame;
+		}
+		ByteBuffer payload = PacketCodec.encode(packet);
+		ByteBuffer frame = ByteBuffer.allocate(4 + payload.remaining());
+		frame.putInt(payload.remaining()).put(payload);
+		frame.flip();
+		return frame;
+	}
+
+	private SOSPFPacket unframe(ByteBuffer payload) throws IOException {
+		// serialized streams start with the object stream magic 0xACED, codec frames with the version
+		if (payload.get(payload.position()) == (byte) 0xAC) {
+			byte[] bytes = new byte[payload.remaining()];
+			payload.get(bytes);
+			ObjectInputStream input = new ObjectInputStream(new ByteArrayInputStream(bytes));
+			try {
+				return (SOSPFPacket) input.readObject();
+			} catch (ClassNotFoundException e) {
+				throw new ProtocolException("unknown class " + e.getMessage());
+			}
+		}
+		return PacketCodec.decode(payload);
+	}
+
+	// on the event loop
+	private void flush() {
+		flushScheduled.set(false);
+		if (closed.get() || key == null) {
+			return;
+		}
+		try {
+			onWritable();
+		} catch (IOException e) {
+			log.warn("Channel {} failed: {}", this, e.getMessage());
+			closeNow();
+		}
+	}
+
+	// on the event loop, when the socket can take more bytes; the frames queued so far go out in
+	// gathering writes, so a burst costs a few system calls and segments rather than one per packet
+	void onWritable() throws IOException {
+		while (true) {
+			int n = 0;
+			for (ByteBuffer frame : writeQueue) {
+				if (n == batch.length) {
+					break;
+				}
+				batch[n++] = frame;
+			}
+			if (n == 0) {
+				break;
+			}
+			socket.write(batch, 0, n);
+			int written = 0;
+			while (written < n && !batch[written].hasRemaining()) {
+				writeQueue.poll();
+				written++;
+			}
+			Arrays.fill(batch, 0, n, null);
+			if (written < n) {
+				// the socket buffer is full, continue once it drains
+				key.interestOps(readOps() | SelectionKey.OP_WRITE);
+				return;
+			}
+		}
+		key.interestOps(readOps());
+		if (closing) {
+			closeNow();
+		}
+	}
+
+	// on the event loop, when bytes arrived; hands every complete frame to the handler
+	void onReadable() throws IOException {
+		if (socket.read(readBuffer) == -1) {
+			closeNow();
+			return;
+		}
+
+		readBuffer.flip();
+		while (readBuffer.remaining() >= 4) {
+			int length = readBuffer.getInt(readBuffer.position());
+			if (length <= 0 || length > MAX_FRAME) {
+				throw new ProtocolException("bad frame length " + length);
+			}
+			if (readBuffer.remaining() < 4 + length) {
+				break;
+			}
+			readBuffer.position(readBuffer.position() + 4);
+			ByteBuffer payload = readBuffer.slice();
+			payload.limit(length);
+			readBuffer.position(readBuffer.position() + length);
+			handler.deliver(unframe(payload));
+		}
+		readBuffer.compact();
+
+		// make room for a frame larger than the buffer
+		if (!readBuffer.hasRemaining()) {
+			ByteBuffer larger = ByteBuffer.allocate(readBuffer.capacity() * 2);
+			readBuffer.flip();
+			larger.put(readBuffer);
+			readBuffer = larger;
+		}
+	}
+
+	public boolean isClosed() {
+		return closing || closed.get();
+	}
+
+	public void pauseReading() {
+		readPaused = true;
+		loop.execute(() -> updateReadInterest());
+	}
+
+	public void resumeReading() {
+		readPaused = false;
+		loop.execute(() -> updateReadInterest());
+	}
+
+	private int readOps() {
+		return readPaused ? 0 : SelectionKey.OP_READ;
+	}
+
+	// on the event loop
+	private void updateReadInterest() {
+		if (closed.get() || key == null || !key.isValid()) {
+			return;
+		}
+		key.interestOps((key.interestOps() & SelectionKey.OP_WRITE) | readOps());
+	}
+
+	/**
+	 * close the channel once the packets already queued have been written
+	 */
+	public void close() {
+		closing = true;
+		if (flushScheduled.compareAndSet(false, true)) {
+			loop.execute(() -> flush());
+		}
+	}
+
+	// from the event loop, the timer and the terminal; only the first call closes
+	public void closeNow() {
+		if (!closed.compareAndSet(false, true)) {
+			return;
+		}
+		if (key != null) {
+			key.cancel();
+		}
+		try {
+			socket.close();
+		} catch (IOException e) {
+			log.warn("Could not close channel {}: {}", this, e.getMessage());
+		}
+		handler.closed();
+	}
+
+	public String toString() {
+		try {
+			return String.valueOf(socket.getRemoteAddress());
+		} catch (IOException e) {
+			return "closed";
+		}
+	}
+}
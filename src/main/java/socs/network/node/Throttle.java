@@ -0,0 +1,98 @@
+package socs.network.node;
+
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * runs an action at most once per hold time; requests made while a run is pending are merged into
+ * that run. The hold time doubles with every run that follows closely on the previous one, up to the
+ * maximum, and falls back to the initial hold after a quiet period of twice the current hold, so a
+ * single change is acted on right away while a storm of changes is handled in ever fewer runs
+ * <p/>
+ * an initial hold of 0 disables the throttling
+ */
+class Throttle {
+
+	private static final Logger log = LoggerFactory.getLogger(Throttle.class);
+
+	private final ScheduledExecutorService timer;
+	private final long initialHold;
+	private final long maxHold;
+	private final Runnable action;
+
+	private long hold;
+	private long lastRun = Long.MIN_VALUE / 2;
+	private boolean scheduled = false;
+
+	Throttle(ScheduledExecutorService timer, long initialHold, long maxHold, Runnable action) {
+		this.timer = timer;
+		this.initialHold = initialHold;
+		this.maxHold = Math.max(initialHold, maxHold);
+		this.action = action;
+		this.hold = initialHold;
+	}
+
+	/**
+	 * ask for a run of the action
+	 */
+	synchronized void request() {
+		if (scheduled) {
+			return;
+		}
+		scheduled = true;
+		timer.schedule(() -> fire(), nextDelay(), TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * ask for a run that the caller makes itself, on its own thread, when the hold allows one right
+	 * away; otherwise a run of the action is scheduled as by request
+	 *
+	 * @return whether the caller is to run it now
+	 */
+	synchronized boolean requestNow() {
+		if (scheduled) {
+			return false;
+		}
+		long delay = nextDelay();
+		if (delay == 0) {
+			lastRun = now();
+			return true;
+		}
+		scheduled = true;
+		timer.schedule(() -> fire(), delay, TimeUnit.MILLISECONDS);
+		return false;
+	}
+
+	// how long the next run has to wait, backing off or resetting the hold
+	private long nextDelay() {
+		long now = now();
+		if (now - lastRun >= 2 * hold) {
+			// quiet for a while, react right away
+			hold = initialHold;
+			return 0;
+		}
+		long delay = Math.max(0, lastRun + hold - now);
+		hold = Math.min(hold * 2, maxHold);
+		return delay;
+	}
+
+	private void fire() {
+		synchronized (this) {
+			scheduled = false;
+			lastRun = now();
+		}
+		// changes after this point request another run
+		try {
+			action.run();
+		} catch (Exception e) {
+			log.error("Throttled action failed", e);
+		}
+	}
+
+	private static long now() {
+		return System.nanoTime() / 1000000;
+	}
+}
@@ -0,0 +1,211 @@
+package socs.network.node;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeSet;
+
+import socs.network.message.LSA;
+
+/**
+ * routers and the weighted links between them, read from a file or generated; links are symmetric
+ * <p/>
+ * file format, one link per line: {@code <router> <router> [weight [area]]}, the weight defaulting
+ * to 1 and the area to the backbone; blank lines and lines starting with # are skipped. Generated
+ * topologies name router i "R" + i and give links weights 1..9
+ */
+class Topology {
+
+	final List<String> routers = new ArrayList<String>();
+	// a, b, weight, area per link, a and b being indices in routers
+	final List<int[]> links = new ArrayList<int[]>();
+
+	private final HashMap<String, Integer> index = new HashMap<String, Integer>();
+	private final HashSet<Long> linked = new HashSet<Long>();
+
+	static Topology read(String path) throws IOException {
+		Topology topology = new Topology();
+		BufferedReader reader = new BufferedReader(new FileReader(path));
+		try {
+			String line;
+			int number = 0;
+			while ((line = reader.readLine()) != null) {
+				number++;
+				line = line.trim();
+				if (line.isEmpty() || line.startsWith("#")) {
+					continue;
+				}
+				String[] fields = line.split("\\s+");
+				if (fields.length < 2 || fields.length > 4) {
+					throw new IOException(path + ":" + number + ": expected <router> <router> [weight [area]]");
+				}
+				int weight = fields.length >= 3 ? Integer.parseInt(fields[2]) : 1;
+				int area = fields.length == 4 ? Integer.parseInt(fields[3]) : Area.BACKBONE;
+				topology.link(topology.router(fields[0]), topology.router(fields[1]), weight, area);
+			}
+		} finally {
+			reader.close();
+		}
+		return topology;
+	}
+
+	/**
+	 * ring, grid or scalefree (barabasi-albert, every new router linking to two existing ones picked
+	 * by degree) of the given size, all in the backbone
+	 */
+	static Topology generate(String shape, int size, long seed) {
+		return generate(shape, size, seed, 1);
+	}
+
+	/**
+	 * as generate, but a grid is split into the given number of areas of whole rows; the backbone is
+	 * the first column, the first row of every area but the first and the links between areas
+	 */
+	static Topology generate(String shape, int size, long seed, int areas) {
+		if (areas > 1 && !shape.equals("grid")) {
+			throw new IllegalArgumentException("only grids are split into areas");
+		}
+		Topology topology = new Topology();
+		for (int i = 0; i < size; i++) {
+			topology.router(name(i));
+		}
+
+		if (shape.equals("ring")) {
+			for (int i = 0; i < size; i++) {
+				topology.link(i, (i + 1) % size);
+			}
+		} else if (shape.equals("grid")) {
+			int side = (int) Math.ceil(Math.sqrt(size));
+			for (int i = 0; i < size; i++) {
+				if ((i + 1) % side != 0 && i + 1 < size) {
+					topology.link(i, i + 1);
+				}
+				if (i + side < size) {
+					topology.link(i, i + side);
+				}
+			}
+			if (areas > 1) {
+				topology.split(side, areas);
+			}
+		} else if (shape.equals("scalefree")) {
+			Random random = new Random(seed);
+			List<Integer> ends = new ArrayList<Integer>();
+			if (size > 1) {
+				topology.link(0, 1);
+				ends.add(0);
+				ends.add(1);
+			}
+			for (int i = 2; i < size; i++) {
+				for (int k = 0; k < 2; k++) {
+					int target = ends.get(random.nextInt(ends.size()));
+					if (topology.link(i, target)) {
+						ends.add(target);
+						ends.add(i);
+					}
+				}
+			}
+		} else {
+			throw new IllegalArgumentException("unknown topology " + shape);
+		}
+		return topology;
+	}
+
+	// put every link of a grid with rows of the given length in its area, see generate
+	private void split(int side, int areas) {
+		int rows = (routers.size() + side - 1) / side;
+		for (int[] link : links) {
+			int row = link[0] / side;
+			int band = row * areas / rows;
+			boolean first = band > 0 && (row - 1) * areas / rows != band;
+			if (link[1] == link[0] + 1) {
+				link[3] = first ? Area.BACKBONE : band + 1;
+			} else {
+				boolean between = (row + 1) * areas / rows != band;
+				link[3] = link[0] % side == 0 || between ? Area.BACKBONE : band + 1;
+			}
+		}
+	}
+
+	/**
+	 * the ids of the areas the links are in
+	 */
+	TreeSet<Integer> areas() {
+		TreeSet<Integer> areas = new TreeSet<Integer>();
+		for (int[] link : links) {
+			areas.add(link[3]);
+		}
+		return areas;
+	}
+
+	static String name(int i) {
+		return "R" + i;
+	}
+
+	/**
+	 * the LSA every router would originate, all at sequence number 0
+	 */
+	List<LSA> lsas() {
+		List<List<int[]>> adjacency = adjacency();
+		List<LSA> lsas = new ArrayList<LSA>(routers.size());
+		for (int i = 0; i < routers.size(); i++) {
+			LSA.Builder lsa = LSA.builder(routers.get(i), 0).add(routers.get(i), -1, 0);
+			for (int[] link : adjacency.get(i)) {
+				lsa.add(routers.get(link[0]), 1000 + link[0] % 60000, link[1]);
+			}
+			lsas.add(lsa.build());
+		}
+		return lsas;
+	}
+
+	/**
+	 * router index => neighbour index and weight of each of its links
+	 */
+	List<List<int[]>> adjacency() {
+		List<List<int[]>> adjacency = new ArrayList<List<int[]>>(routers.size());
+		for (int i = 0; i < routers.size(); i++) {
+			adjacency.add(new ArrayList<int[]>());
+		}
+		for (int[] link : links) {
+			adjacency.get(link[0]).add(new int[] { link[1], link[2] });
+			adjacency.get(link[1]).add(new int[] { link[0], link[2] });
+		}
+		return adjacency;
+	}
+
+	int maxDegree() {
+		int max = 0;
+		for (List<int[]> neighbours : adjacency()) {
+			max = Math.max(max, neighbours.size());
+		}
+		return max;
+	}
+
+	private int router(String name) {
+		Integer i = index.get(name);
+		if (i == null) {
+			i = routers.size();
+			index.put(name, i);
+			routers.add(name);
+		}
+		return i;
+	}
+
+	// both ends of a generated link agree on its weight
+	private boolean link(int a, int b) {
+		return link(a, b, 1 + (Math.min(a, b) * 31 + Math.max(a, b)) % 9, Area.BACKBONE);
+	}
+
+	// false for a link to itself or one that exists already
+	private boolean link(int a, int b, int weight, int area) {
+		if (a == b || !linked.add((long) Math.min(a, b) << 32 | Math.max(a, b))) {
+			return false;
+		}
+		links.add(new int[] { a, b, weight, area });
+		return true;
+	}
+}
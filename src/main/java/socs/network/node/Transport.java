@@ -0,0 +1,20 @@
+package socs.network.node;
+
+import java.io.IOException;
+
+/**
+ * how a router reaches its neighbours: it accepts the channels other routers open to it, serving
+ * each with a ServerThread, and opens channels to the routers it is attached to
+ */
+interface Transport {
+
+	/**
+	 * start accepting channels
+	 */
+	void start();
+
+	/**
+	 * open a channel to the router on the other end of the link, served by a Client
+	 */
+	Client connect(Link link) throws IOException;
+}
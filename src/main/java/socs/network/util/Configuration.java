@@ -15,18 +15,35 @@ public class Configuration {
     _config = ConfigFactory.parseFile(new File(path));
   }
 
+  // no settings, to be filled with addEntry
+  public Configuration() {
+    _config = ConfigFactory.empty();
+  }
+
   public String getString(String key) {
     return _config.getString(key);
   }
 
+  public String getString(String key, String defaultValue) {
+    return _config.hasPath(key) ? _config.getString(key) : defaultValue;
+  }
+
   public Boolean getBoolean(String key) {
     return _config.getBoolean(key);
   }
 
+  public boolean getBoolean(String key, boolean defaultValue) {
+    return _config.hasPath(key) ? _config.getBoolean(key) : defaultValue;
+  }
+
   public int getInt(String key) {
     return _config.getInt(key);
   }
 
+  public int getInt(String key, int defaultValue) {
+    return _config.hasPath(key) ? _config.getInt(key) : defaultValue;
+  }
+
   public short getShort(String key) {
     return (short) _config.getInt(key);
   }
@@ -0,0 +1,110 @@
+package socs.network.util;
+
+import java.util.Arrays;
+
+/**
+ * binary min-heap over the dense integer ids 0..capacity-1, keyed by an int priority; keeps a
+ * position index for every id so that decreaseKey and contains are O(log n) and O(1)
+ */
+public class IndexedMinHeap {
+
+  private int[] heap;     // heap slot => id
+  private int[] position; // id => heap slot, -1 when not in the heap
+  private int[] key;      // id => priority
+  private int size = 0;
+
+  public IndexedMinHeap(int capacity) {
+    heap = new int[capacity];
+    position = new int[capacity];
+    key = new int[capacity];
+    Arrays.fill(position, -1);
+  }
+
+  public boolean isEmpty() {
+    return size == 0;
+  }
+
+  public int size() {
+    return size;
+  }
+
+  public boolean contains(int id) {
+    return position[id] != -1;
+  }
+
+  public int keyOf(int id) {
+    return key[id];
+  }
+
+  /**
+   * insert the id with the given priority, or lower its priority if it is already queued and the
+   * new priority is smaller
+   */
+  public void offer(int id, int priority) {
+    if (position[id] == -1) {
+      key[id] = priority;
+      heap[size] = id;
+      position[id] = size;
+      siftUp(size++);
+    } else if (priority < key[id]) {
+      key[id] = priority;
+      siftUp(position[id]);
+    }
+  }
+
+  /**
+   * remove and return the id with the smallest priority
+   */
+  public int poll() {
+    int top = heap[0];
+    size--;
+    position[top] = -1;
+    if (size > 0) {
+      heap[0] = heap[size];
+      position[heap[0]] = 0;
+      siftDown(0);
+    }
+    return top;
+  }
+
+  public void clear() {
+    for (int i = 0; i < size; i++) {
+      position[heap[i]] = -1;
+    }
+    size = 0;
+  }
+
+  private void siftUp(int slot) {
+    int id = heap[slot];
+    while (slot > 0) {
+      int parent = (slot - 1) >>> 1;
+      if (key[heap[parent]] <= key[id]) {
+        break;
+      }
+      heap[slot] = heap[parent];
+      position[heap[slot]] = slot;
+      slot = parent;
+    }
+    heap[slot] = id;
+    position[id] = slot;
+  }
+
+  private void siftDown(int slot) {
+    int id = heap[slot];
+    int half = size >>> 1;
+    while (slot < half) {
+      int child = 2 * slot + 1;
+      if (child + 1 < size && key[heap[child + 1]] < key[heap[child]]) {
+        child++;
+      }
+      if (key[id] <= key[heap[child]]) {
+        break;
+      }
+      heap[slot] = heap[child];
+      position[heap[slot]] = slot;
+      slot = child;
+    }
+    heap[slot] = id;
+    position[id] = slot;
+  }
+}
@@ -0,0 +1,61 @@
+package socs.network.message;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Random;
+import java.util.TreeMap;
+
+import org.junit.Test;
+
+public class LSADeltaTest {
+
+  @Test
+  public void applyGivesBackTheNewVersion() {
+    Random random = new Random(7);
+    LSA base = LSA.builder("R0", 1).build();
+    for (int step = 0; step < 200; step++) {
+      // a few links added, changed or removed at a time, like the versions a router originates
+      LSA next = base.withSeqNumber(base.lsaSeqNumber + 1 + random.nextInt(3));
+      int changes = 1 + random.nextInt(3);
+      for (int i = 0; i < changes; i++) {
+        String neighbour = "R" + (1 + random.nextInt(30));
+        if (random.nextInt(3) == 0) {
+          next = next.withoutLinks(neighbour);
+        } else {
+          next = next.withLink(neighbour, 3000 + random.nextInt(4), 1 + random.nextInt(5));
+        }
+      }
+      next = next.withAge(random.nextInt(LSA.MAX_AGE));
+
+      LSA rebuilt = LSADelta.between(base, next).applyTo(base);
+      assertEquals(next.linkStateID, rebuilt.linkStateID);
+      assertEquals(next.lsaSeqNumber, rebuilt.lsaSeqNumber);
+      assertEquals(next.lsaAge, rebuilt.lsaAge);
+      assertEquals(links(next), links(rebuilt));
+      base = next;
+    }
+  }
+
+  @Test
+  public void unchangedLinksAreNotSent() {
+    LSA base = LSA.builder("R0", 1).add("R1", 3001, 1).add("R2", 3002, 1).add("R3", 3003, 1).build();
+    LSA next = base.withSeqNumber(2).withLink("R2", 3002, 4).withoutLinks("R3").withLink("R4", 3004, 1);
+
+    LSADelta delta = LSADelta.between(base, next);
+    assertEquals(1, delta.removed.size());
+    assertEquals("R3", delta.removed.get(0));
+    assertEquals(2, delta.changed.size());
+    assertEquals(3, delta.size());
+    assertEquals(links(next), links(delta.applyTo(base)));
+  }
+
+  // linkID => port and metric; a delta keeps the links of the base in place, so order may differ
+  private static TreeMap<String, String> links(LSA lsa) {
+    TreeMap<String, String> links = new TreeMap<String, String>();
+    for (int i = 0; i < lsa.size(); i++) {
+      links.put(lsa.linkID(i), lsa.portNum(i) + "," + lsa.tosMetrics(i));
+    }
+    assertEquals(lsa.size(), links.size());
+    return links;
+  }
+}
@@ -0,0 +1,134 @@
+package socs.network.message;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+
+import org.junit.Test;
+
+public class PacketCodecTest {
+
+  @Test
+  public void linkStateUpdateRoundTrip() throws Exception {
+    SOSPFPacket packet = header((short) 1);
+    packet.lsaArray.add(LSA.builder("192.168.1.1", Integer.MIN_VALUE + 3).age(17)
+        .add("192.168.1.2", 3002, 5).add("192.168.1.3", -1, 0).build());
+    packet.lsaArray.add(LSA.builder("192.168.1.2", 41).add("192.168.1.1", 3001, 5)
+        .add("10.0.0.9", LinkDescription.SUMMARY, 12).build());
+    LSADelta delta = new LSADelta();
+    delta.linkStateID = "192.168.1.3";
+    delta.baseSeqNumber = 7;
+    delta.lsaSeqNumber = 9;
+    delta.lsaAge = 2;
+    delta.changed.add(new LinkDescription("192.168.1.1", 3001, 4));
+    delta.removed.add("192.168.1.2");
+    packet.deltaArray.add(delta);
+
+    SOSPFPacket decoded = roundTrip(packet);
+    assertHeader(packet, decoded);
+    assertEquals(2, decoded.lsaArray.size());
+    for (int i = 0; i < 2; i++) {
+      assertEquals(packet.lsaArray.get(i).toString(), decoded.lsaArray.get(i).toString());
+    }
+    // a router named in several places is sent once and decoded into one shared String
+    assertSame(decoded.lsaArray.get(0).linkStateID, decoded.lsaArray.get(1).linkID(0));
+    assertSame(decoded.srcIP, decoded.lsaArray.get(0).linkStateID);
+
+    assertEquals(1, decoded.deltaArray.size());
+    assertEquals(delta.toString(), decoded.deltaArray.get(0).toString());
+  }
+
+  @Test
+  public void dataRoundTrip() throws Exception {
+    SOSPFPacket packet = header(PacketCodec.DATA);
+    packet.dstIP = "192.168.1.9";
+    packet.ttl = PacketCodec.MAX_TTL;
+    packet.dataSeq = 123456;
+    packet.timestamp = System.nanoTime();
+    packet.echo = true;
+    packet.payload = new byte[] { 1, 2, 3, (byte) 0xff };
+
+    SOSPFPacket decoded = roundTrip(packet);
+    assertHeader(packet, decoded);
+    assertEquals(packet.ttl, decoded.ttl);
+    assertEquals(packet.dataSeq, decoded.dataSeq);
+    assertEquals(packet.timestamp, decoded.timestamp);
+    assertTrue(decoded.echo);
+    assertArrayEquals(packet.payload, decoded.payload);
+  }
+
+  @Test
+  public void countsAboveShortRange() throws Exception {
+    SOSPFPacket packet = header((short) 1);
+    for (int i = 0; i < 40000; i++) {
+      packet.lsaArray.add(LSA.builder("10." + (i >> 8) + "." + (i & 0xff) + ".1", i).add("10.0.0.1", 1, 1).build());
+    }
+    SOSPFPacket decoded = roundTrip(packet);
+    assertEquals(40000, decoded.lsaArray.size());
+    assertEquals(packet.lsaArray.get(39999).toString(), decoded.lsaArray.get(39999).toString());
+  }
+
+  @Test
+  public void rejectsOtherVersions() {
+    ByteBuffer encoded = PacketCodec.encode(header((short) 0));
+    encoded.put(0, (byte) (PacketCodec.VERSION + 1));
+    try {
+      PacketCodec.decode(encoded);
+      fail();
+    } catch (ProtocolException e) {
+      assertTrue(e.getMessage().contains("version"));
+    }
+  }
+
+  @Test
+  public void rejectsTruncatedPackets() {
+    SOSPFPacket packet = header((short) 1);
+    packet.lsaArray.add(LSA.builder("192.168.1.1", 1).add("192.168.1.2", 3002, 5).build());
+    ByteBuffer encoded = PacketCodec.encode(packet);
+    encoded.limit(encoded.limit() - 3);
+    try {
+      PacketCodec.decode(encoded);
+      fail();
+    } catch (ProtocolException e) {
+      // expected
+    }
+  }
+
+  private static SOSPFPacket header(short type) {
+    SOSPFPacket packet = new SOSPFPacket();
+    packet.sospfType = type;
+    packet.srcProcessIP = "127.0.0.1";
+    packet.srcProcessPort = 3001;
+    packet.srcWeight = 5;
+    packet.areaID = 2;
+    packet.srcIP = "192.168.1.1";
+    packet.neighborID = "192.168.1.1";
+    return packet;
+  }
+
+  private static void assertHeader(SOSPFPacket expected, SOSPFPacket actual) {
+    assertEquals(expected.sospfType, actual.sospfType);
+    assertEquals(expected.srcProcessIP, actual.srcProcessIP);
+    assertEquals(expected.srcProcessPort, actual.srcProcessPort);
+    assertEquals(expected.srcWeight, actual.srcWeight);
+    assertEquals(expected.areaID, actual.areaID);
+    assertEquals(expected.srcIP, actual.srcIP);
+    assertEquals(expected.dstIP, actual.dstIP);
+    assertEquals(expected.neighborID, actual.neighborID);
+    assertNull(actual.routerID);
+  }
+
+  private static SOSPFPacket roundTrip(SOSPFPacket packet) throws ProtocolException {
+    ByteBuffer encoded = PacketCodec.encode(packet);
+    assertEquals(PacketCodec.VERSION, encoded.get(0));
+    SOSPFPacket decoded = PacketCodec.decode(encoded);
+    assertEquals(0, encoded.remaining());
+    return decoded;
+  }
+}
@@ -0,0 +1,156 @@
+package socs.network.node;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import socs.network.message.PacketCodec;
+import socs.network.message.SOSPFPacket;
+import socs.network.message.WireFormat;
+import socs.network.util.Configuration;
+
+public class BackPressureTest {
+
+	private LoopbackNetwork network;
+	private Router router;
+	private EventLoop loop;
+	private ServerSocketChannel server;
+
+	// holds the single worker, and the handlers, until the test lets them go
+	private final CountDownLatch release = new CountDownLatch(1);
+
+	@Before
+	public void setUp() throws IOException {
+		network = new LoopbackNetwork(1);
+		Configuration config = new Configuration();
+		config.addEntry("socs.network.router.ip", "192.168.1.1");
+		config.addEntry("socs.network.router.port", "1");
+		config.addEntry("socs.network.router.jmx", "false");
+		config.addEntry("socs.network.router.hello.interval", "0");
+		router = new Router(config, network);
+
+		loop = new EventLoop("test-loop");
+		loop.start();
+		server = ServerSocketChannel.open();
+		server.bind(new InetSocketAddress("127.0.0.1", 0));
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		release.countDown();
+		server.close();
+		network.executor.shutdownNow();
+		network.timer.shutdownNow();
+	}
+
+	// a handler run on the event loop would block it, and the blocking reads below with it
+	@Test(timeout = 20000)
+	public void fullExecutorPausesTheChannelNotTheLoop() throws Exception {
+		// the only worker is busy and its queue is full
+		network.executor.execute(() -> await(release));
+		try {
+			while (true) {
+				network.executor.execute(() -> {
+				});
+			}
+		} catch (RejectedExecutionException e) {
+			// full
+		}
+
+		final CountDownLatch handled = new CountDownLatch(3);
+		final Thread[] handlerThread = new Thread[1];
+		ServerThread busy = new ServerThread(router) {
+			protected void handle(SOSPFPacket message) {
+				handlerThread[0] = Thread.currentThread();
+				await(release);
+				handled.countDown();
+			}
+		};
+		SocketChannel busyPeer = connect(busy);
+		ServerThread other = new ServerThread(router);
+		SocketChannel quietPeer = connect(other);
+
+		for (int i = 0; i < 3; i++) {
+			write(busyPeer, packet(i));
+		}
+
+		// the loop still runs its tasks and writes on the other channels
+		CountDownLatch alive = new CountDownLatch(1);
+		loop.execute(() -> alive.countDown());
+		assertTrue(alive.await(2, TimeUnit.SECONDS));
+		other.channel.send(packet(7));
+		assertEquals(7, read(quietPeer).dataSeq);
+
+		// once the workers catch up the paused channel is read again and every packet handled
+		release.countDown();
+		assertTrue(handled.await(5, TimeUnit.SECONDS));
+		assertNotSame(loop, handlerThread[0]);
+		busyPeer.close();
+		quietPeer.close();
+	}
+
+	private SocketChannel connect(ServerThread handler) throws IOException {
+		SocketChannel peer = SocketChannel.open(server.getLocalAddress());
+		new SocketNeighborChannel(server.accept(), loop, WireFormat.BINARY, handler);
+		return peer;
+	}
+
+	private static SOSPFPacket packet(int seq) {
+		SOSPFPacket packet = new SOSPFPacket();
+		packet.sospfType = PacketCodec.DATA;
+		packet.srcIP = "192.168.1.2";
+		packet.dstIP = "192.168.1.3";
+		packet.ttl = 8;
+		packet.dataSeq = seq;
+		packet.payload = new byte[0];
+		return packet;
+	}
+
+	private static void write(SocketChannel peer, SOSPFPacket packet) throws IOException {
+		ByteBuffer payload = PacketCodec.encode(packet);
+		ByteBuffer frame = ByteBuffer.allocate(4 + payload.remaining());
+		frame.putInt(payload.remaining()).put(payload);
+		frame.flip();
+		while (frame.hasRemaining()) {
+			peer.write(frame);
+		}
+	}
+
+	private static SOSPFPacket read(SocketChannel peer) throws IOException {
+		ByteBuffer length = ByteBuffer.allocate(4);
+		readFully(peer, length);
+		ByteBuffer payload = ByteBuffer.allocate(length.getInt(0));
+		readFully(peer, payload);
+		payload.flip();
+		return PacketCodec.decode(payload);
+	}
+
+	private static void readFully(SocketChannel peer, ByteBuffer buffer) throws IOException {
+		while (buffer.hasRemaining()) {
+			if (peer.read(buffer) == -1) {
+				throw new IOException("closed");
+			}
+		}
+	}
+
+	private static void await(CountDownLatch latch) {
+		try {
+			latch.await();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+}
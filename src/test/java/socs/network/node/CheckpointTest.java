@@ -0,0 +1,95 @@
+package socs.network.node;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import socs.network.message.LSA;
+import socs.network.util.Configuration;
+
+public class CheckpointTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private final List<LoopbackNetwork> networks = new ArrayList<LoopbackNetwork>();
+
+	@After
+	public void tearDown() {
+		for (LoopbackNetwork network : networks) {
+			network.executor.shutdownNow();
+			network.timer.shutdownNow();
+		}
+	}
+
+	@Test
+	public void restoreGivesBackTheSavedDatabaseAndPorts() throws IOException {
+		Router saved = router();
+		saved.ports.add(link(saved, "127.0.0.1", 3002, "192.168.1.2", 3, Area.BACKBONE));
+		saved.ports.add(link(saved, "127.0.0.1", 3003, "192.168.1.3", 7, 1));
+		saved.area(Area.BACKBONE).lsd.restore(LSA.builder("192.168.1.2", Integer.MIN_VALUE + 4)
+				.add("192.168.1.2", -1, 0).add("192.168.1.1", 3001, 3).add("192.168.1.4", 3004, 1).build());
+		saved.area(Area.BACKBONE).lsd.restore(LSA.builder("192.168.1.4", Integer.MIN_VALUE + 2)
+				.add("192.168.1.4", -1, 0).add("192.168.1.2", 3002, 1).build());
+		saved.area(1).lsd.restore(LSA.builder("192.168.1.3", Integer.MIN_VALUE + 9)
+				.add("192.168.1.3", -1, 0).add("192.168.1.1", 3001, 7).build());
+
+		File file = folder.newFile("router.ckpt");
+		Checkpoint.save(saved, file);
+		Router restored = router();
+		Checkpoint.restore(restored, file);
+
+		assertEquals(ports(saved), ports(restored));
+		assertEquals(saved.areas.keySet(), restored.areas.keySet());
+		for (int area : saved.areas.keySet()) {
+			assertEquals(database(saved, area), database(restored, area));
+		}
+	}
+
+	private Router router() {
+		LoopbackNetwork network = new LoopbackNetwork(1);
+		networks.add(network);
+		Configuration config = new Configuration();
+		config.addEntry("socs.network.router.ip", "192.168.1.1");
+		config.addEntry("socs.network.router.port", "1");
+		config.addEntry("socs.network.router.jmx", "false");
+		config.addEntry("socs.network.router.hello.interval", "0");
+		return new Router(config, network);
+	}
+
+	private static Link link(Router router, String processIP, int processPort, String simulatedIP, int weight, int area) {
+		RouterDescription remote = new RouterDescription();
+		remote.processIPAddress = processIP;
+		remote.processPortNumber = (short) processPort;
+		remote.simulatedIPAddress = simulatedIP;
+		return new Link(router.rd, remote, weight, area);
+	}
+
+	private static List<String> ports(Router router) {
+		List<String> ports = new ArrayList<String>();
+		for (Link link : router.ports) {
+			ports.add(link.router2.processIPAddress + ":" + link.router2.processPortNumber + " " + link.router2.simulatedIPAddress
+					+ " weight " + link.weight + " area " + link.area);
+		}
+		return ports;
+	}
+
+	// the LSAs without their ages, which go on while the file is written and read
+	private static Map<String, String> database(Router router, int area) {
+		Map<String, String> lsas = new TreeMap<String, String>();
+		for (Map.Entry<String, LSA> entry : router.area(area).lsd._store.entrySet()) {
+			lsas.put(entry.getKey(), entry.getValue().withAge(0).toString());
+		}
+		return lsas;
+	}
+}
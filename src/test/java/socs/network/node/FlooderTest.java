@@ -0,0 +1,83 @@
+package socs.network.node;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import socs.network.message.LSA;
+import socs.network.util.Configuration;
+
+public class FlooderTest {
+
+	private static final String ORIGINATOR = "192.168.1.9";
+
+	private LoopbackNetwork network;
+	private Area area;
+
+	@Before
+	public void setUp() {
+		network = new LoopbackNetwork(1);
+		Configuration config = new Configuration();
+		config.addEntry("socs.network.router.ip", "192.168.1.1");
+		config.addEntry("socs.network.router.port", "1");
+		config.addEntry("socs.network.router.jmx", "false");
+		config.addEntry("socs.network.router.hello.interval", "0");
+		config.addEntry("socs.network.router.lsa.arrival", "100");
+		config.addEntry("socs.network.router.lsa.maxArrival", "800");
+		area = new Router(config, network).area(Area.BACKBONE);
+	}
+
+	@After
+	public void tearDown() {
+		network.executor.shutdownNow();
+		network.timer.shutdownNow();
+	}
+
+	@Test
+	public void newerVersionsWithinTheHoldAreMerged() throws InterruptedException {
+		area.flooder.receive(lsa(1), null);
+		assertEquals(1, installed());
+		// the same version from another neighbour changes nothing
+		area.flooder.receive(lsa(1), null);
+
+		area.flooder.receive(lsa(2), null);
+		area.flooder.receive(lsa(3), null);
+		assertEquals(1, installed());
+		Thread.sleep(300);
+		assertEquals(3, installed());
+	}
+
+	@Test
+	public void flappingOriginatorIsInstalledEverLessOften() throws InterruptedException {
+		// a new version every 10 ms for 2.5 s; a fixed 100 ms window would install about 25 of them
+		List<Long> installs = new ArrayList<Long>();
+		int last = 0;
+		long start = System.nanoTime();
+		for (int seq = 1; seq <= 250; seq++) {
+			area.flooder.receive(lsa(seq), null);
+			Thread.sleep(10);
+			if (installed() != last) {
+				last = installed();
+				installs.add((System.nanoTime() - start) / 1000000);
+			}
+		}
+		assertTrue("installed " + installs.size() + " times at " + installs, installs.size() <= 10);
+		long gap = installs.get(installs.size() - 1) - installs.get(installs.size() - 2);
+		assertTrue("last gap " + gap + " ms", gap >= 600);
+	}
+
+	private int installed() {
+		LSA lsa = area.lsd._store.get(ORIGINATOR);
+		return lsa == null ? 0 : lsa.lsaSeqNumber;
+	}
+
+	private static LSA lsa(int seq) {
+		return LSA.builder(ORIGINATOR, seq).add("192.168.1.1", 3001, 1).build();
+	}
+}
@@ -0,0 +1,55 @@
+package socs.network.node;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import socs.network.util.Configuration;
+
+public class KeepaliveTest {
+
+	private LoopbackNetwork network;
+	private Router router;
+
+	@Before
+	public void setUp() {
+		network = new LoopbackNetwork(1);
+		Configuration config = new Configuration();
+		config.addEntry("socs.network.router.ip", "192.168.1.1");
+		config.addEntry("socs.network.router.port", "1");
+		config.addEntry("socs.network.router.jmx", "false");
+		config.addEntry("socs.network.router.hello.interval", "50");
+		config.addEntry("socs.network.router.hello.dead", "200");
+		router = new Router(config, network);
+	}
+
+	@After
+	public void tearDown() {
+		network.executor.shutdownNow();
+		network.timer.shutdownNow();
+	}
+
+	@Test
+	public void neighbourStuckInInitIsDeclaredDown() throws InterruptedException {
+		Link stuck = link("192.168.1.2", RouterStatus.INIT);
+		// attached but not started yet, nothing to wait for
+		Link attached = link("192.168.1.3", null);
+		router.ports.add(stuck);
+		router.ports.add(attached);
+
+		Thread.sleep(600);
+		assertFalse(router.ports.contains(stuck));
+		assertTrue(router.ports.contains(attached));
+	}
+
+	private Link link(String simulatedIP, RouterStatus status) {
+		RouterDescription remote = new RouterDescription();
+		remote.processIPAddress = "127.0.0.1";
+		remote.simulatedIPAddress = simulatedIP;
+		remote.status = status;
+		return new Link(router.rd, remote, 1, Area.BACKBONE);
+	}
+}
@@ -0,0 +1,67 @@
+package socs.network.node;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Arrays;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import socs.network.message.LSA;
+import socs.network.util.Configuration;
+
+public class NextHopsTest {
+
+	private LoopbackNetwork network;
+	private Router router;
+
+	@Before
+	public void setUp() {
+		network = new LoopbackNetwork(1);
+		Configuration config = new Configuration();
+		config.addEntry("socs.network.router.ip", "A");
+		config.addEntry("socs.network.router.port", "1");
+		config.addEntry("socs.network.router.jmx", "false");
+		config.addEntry("socs.network.router.hello.interval", "0");
+		router = new Router(config, network);
+	}
+
+	@After
+	public void tearDown() {
+		network.executor.shutdownNow();
+		network.timer.shutdownNow();
+	}
+
+	@Test
+	public void bothSidesOfADiamondAreNextHops() {
+		// A - B - D and A - C - D, every link of weight 1
+		Link toB = link("B", 3002);
+		Link toC = link("C", 3003);
+		router.ports.add(toB);
+		router.ports.add(toC);
+		LinkStateDatabase lsd = router.area(Area.BACKBONE).lsd;
+		lsd.restore(LSA.builder("A", Integer.MIN_VALUE + 1).add("A", -1, 0).add("B", 3002, 1).add("C", 3003, 1).build());
+		lsd.restore(LSA.builder("B", Integer.MIN_VALUE + 1).add("B", -1, 0).add("A", 3001, 1).add("D", 3004, 1).build());
+		lsd.restore(LSA.builder("C", Integer.MIN_VALUE + 1).add("C", -1, 0).add("A", 3001, 1).add("D", 3004, 1).build());
+		lsd.restore(LSA.builder("D", Integer.MIN_VALUE + 1).add("D", -1, 0).add("B", 3002, 1).add("C", 3003, 1).build());
+
+		assertEquals(Arrays.asList(toB, toC), router.nextHops("D"));
+		assertEquals(Arrays.asList(toB), router.nextHops("B"));
+	}
+
+	@Test
+	public void unreachableDestinationHasNoNextHops() {
+		router.ports.add(link("B", 3002));
+		assertEquals(0, router.nextHops("Z").size());
+	}
+
+	private Link link(String simulatedIP, int processPort) {
+		RouterDescription remote = new RouterDescription();
+		remote.processIPAddress = "127.0.0.1";
+		remote.processPortNumber = (short) processPort;
+		remote.simulatedIPAddress = simulatedIP;
+		remote.status = RouterStatus.TWO_WAY;
+		return new Link(router.rd, remote, 1, Area.BACKBONE);
+	}
+}
@@ -0,0 +1,133 @@
+package socs.network.node;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+import org.junit.Test;
+
+import socs.network.message.LSA;
+
+public class ShortestPathTreeTest {
+
+	private static final int ROUTERS = 24;
+	private static final String ROOT = "R0";
+
+	// router => neighbour => weight, kept symmetric
+	private final Map<String, TreeMap<String, Integer>> links = new HashMap<String, TreeMap<String, Integer>>();
+	// the database the trees are built from
+	private final Map<String, LSA> store = new HashMap<String, LSA>();
+	private int seq = 0;
+	// routers seen with more than one first hop, so the equal-cost paths were actually compared
+	private int equalCost = 0;
+
+	@Test
+	public void incrementalUpdateMatchesFullRecompute() {
+		Random random = new Random(42);
+		// small weights, so that many routers have several shortest paths
+		for (int i = 0; i < ROUTERS; i++) {
+			for (int j = i + 1; j < ROUTERS; j++) {
+				if (random.nextInt(6) == 0) {
+					link(name(i), name(j), 1 + random.nextInt(3));
+				}
+			}
+		}
+		for (int i = 0; i < ROUTERS; i++) {
+			store.put(name(i), lsa(name(i)));
+		}
+		ShortestPathTree tree = new ShortestPathTree(ROOT, store);
+		assertSame(tree);
+
+		for (int step = 0; step < 500; step++) {
+			String a = name(random.nextInt(ROUTERS));
+			String b = name(random.nextInt(ROUTERS));
+			if (a.equals(b)) {
+				continue;
+			}
+			int action = random.nextInt(10);
+			if (action == 0 && !a.equals(ROOT)) {
+				// the router leaves: its LSA is removed, its neighbours drop their links to it
+				store.remove(a);
+				tree.update(a, null);
+				assertSame(tree);
+				for (String neighbour : new HashSet<String>(neighbours(a).keySet())) {
+					unlink(a, neighbour);
+					change(tree, neighbour);
+				}
+				continue;
+			}
+			if (neighbours(a).containsKey(b) && action < 5) {
+				unlink(a, b);
+			} else {
+				link(a, b, 1 + random.nextInt(3));
+			}
+			change(tree, a);
+			change(tree, b);
+		}
+		assertTrue(equalCost > 0);
+	}
+
+	// a new version of the router's LSA goes into the database and the tree
+	private void change(ShortestPathTree tree, String router) {
+		LSA lsa = lsa(router);
+		store.put(router, lsa);
+		tree.update(router, lsa);
+		assertSame(tree);
+	}
+
+	// the repaired tree answers every query like a tree computed from scratch
+	private void assertSame(ShortestPathTree tree) {
+		ShortestPathTree repaired = tree.snapshot();
+		ShortestPathTree full = new ShortestPathTree(ROOT, store).snapshot();
+		for (int i = 0; i < ROUTERS; i++) {
+			String router = name(i);
+			assertEquals(router, full.distanceTo(router), repaired.distanceTo(router));
+			assertEquals(router, full.nextHops(router), repaired.nextHops(router));
+			assertEquals(router, new HashSet<String>(full.pathsTo(router, Integer.MAX_VALUE)),
+					new HashSet<String>(repaired.pathsTo(router, Integer.MAX_VALUE)));
+			if (repaired.nextHops(router).size() > 1) {
+				equalCost++;
+			}
+			String first = repaired.firstHop(router);
+			if (first != null) {
+				assertTrue(router, repaired.nextHops(router).contains(first));
+			}
+		}
+	}
+
+	private LSA lsa(String router) {
+		LSA.Builder lsa = LSA.builder(router, ++seq);
+		for (Map.Entry<String, Integer> link : neighbours(router).entrySet()) {
+			lsa.add(link.getKey(), 0, link.getValue());
+		}
+		return lsa.build();
+	}
+
+	private void link(String a, String b, int weight) {
+		neighbours(a).put(b, weight);
+		neighbours(b).put(a, weight);
+	}
+
+	private void unlink(String a, String b) {
+		neighbours(a).remove(b);
+		neighbours(b).remove(a);
+	}
+
+	private TreeMap<String, Integer> neighbours(String router) {
+		TreeMap<String, Integer> neighbours = links.get(router);
+		if (neighbours == null) {
+			neighbours = new TreeMap<String, Integer>();
+			links.put(router, neighbours);
+		}
+		return neighbours;
+	}
+
+	private static String name(int i) {
+		return "R" + i;
+	}
+}
@@ -0,0 +1,132 @@
+package socs.network.node;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Test;
+
+public class ThrottleTest {
+
+	private static final long INITIAL = 100;
+	private static final long MAX = 800;
+
+	private final Timer timer = new Timer();
+	private final AtomicInteger runs = new AtomicInteger();
+	private final Throttle throttle = new Throttle(timer, INITIAL, MAX, () -> runs.incrementAndGet());
+
+	@After
+	public void stop() {
+		timer.shutdownNow();
+	}
+
+	@Test
+	public void holdDoublesUpToTheMaximum() {
+		timer.runNow = true;
+		// the first request runs right away, each close follow-up waits twice as long as the one before
+		long[] expected = { 0, 100, 200, 400, 800, 800 };
+		for (int i = 0; i < expected.length; i++) {
+			throttle.request();
+			assertDelay(expected[i], timer.delays.get(i));
+		}
+		assertEquals(expected.length, runs.get());
+	}
+
+	@Test
+	public void quietPeriodResetsTheHold() throws InterruptedException {
+		timer.runNow = true;
+		throttle.request();
+		throttle.request();
+		throttle.request();
+		assertDelay(200, timer.delays.get(2));
+
+		// quiet for more than twice the current hold of 400
+		Thread.sleep(2 * 400 + 50);
+		throttle.request();
+		assertDelay(0, timer.delays.get(3));
+		throttle.request();
+		assertDelay(INITIAL, timer.delays.get(4));
+	}
+
+	@Test
+	public void requestsWhileARunIsPendingAreMerged() {
+		timer.runNow = false;
+		throttle.request();
+		throttle.request();
+		throttle.request();
+		assertEquals(1, timer.delays.size());
+
+		timer.pending.remove(0).run();
+		assertEquals(1, runs.get());
+		// a request after the run starts asks for another one
+		throttle.request();
+		assertEquals(2, timer.delays.size());
+	}
+
+	@Test
+	public void arrivalsRunInlineOnlyWhileQuiet() throws InterruptedException {
+		timer.runNow = true;
+		// the first arrival is installed by the caller, later ones back off like request
+		assertTrue(throttle.requestNow());
+		assertEquals(0, timer.delays.size());
+		long[] expected = { 100, 200, 400, 800, 800 };
+		for (int i = 0; i < expected.length; i++) {
+			assertFalse(throttle.requestNow());
+			assertDelay(expected[i], timer.delays.get(i));
+		}
+		assertEquals(expected.length, runs.get());
+
+		// the originator went quiet for more than twice the hold of 800
+		Thread.sleep(2 * 800 + 50);
+		assertTrue(throttle.requestNow());
+		assertEquals(expected.length, timer.delays.size());
+	}
+
+	@Test
+	public void arrivalsWhileARunIsPendingAreMerged() {
+		timer.runNow = false;
+		assertTrue(throttle.requestNow());
+		assertFalse(throttle.requestNow());
+		assertFalse(throttle.requestNow());
+		assertEquals(1, timer.delays.size());
+		assertEquals(0, runs.get());
+
+		timer.pending.remove(0).run();
+		assertEquals(1, runs.get());
+	}
+
+	// the delays are measured from a clock that keeps running while the test does
+	private static void assertDelay(long expected, long actual) {
+		assertTrue("expected about " + expected + " ms, was " + actual, actual <= expected && actual >= expected - 50);
+	}
+
+	// records what the throttle schedules and runs it at once or keeps it for the test
+	private static class Timer extends ScheduledThreadPoolExecutor {
+		final List<Long> delays = new ArrayList<Long>();
+		final List<Runnable> pending = new ArrayList<Runnable>();
+		boolean runNow;
+
+		Timer() {
+			super(1);
+		}
+
+		@Override
+		public ScheduledFuture<?> schedule(Runnable task, long delay, TimeUnit unit) {
+			delays.add(unit.toMillis(delay));
+			if (runNow) {
+				task.run();
+			} else {
+				pending.add(task);
+			}
+			return null;
+		}
+	}
+}